@@ -0,0 +1,160 @@
+package be.kuleuven.mandelbrot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts an image into tiles of roughly equal cost rather than equal size.
+ * <p>
+ * The cost of the image is estimated by a coarse pre-pass on the client: one probe sample per
+ * {@value #PROBE_SPACING}x{@value #PROBE_SPACING} pixel cell, iterated with a small budget of
+ * {@value #PROBE_BUDGET}. The tiles of a regular {@link TileLayout} are then split in two along
+ * their longest side while they cost more than twice the mean tile, and runs of neighbouring tiles
+ * in a row are merged while together they cost no more than the mean. Boundary regions thus end up
+ * in many small tasks, the exterior in a few large ones, and no single task holds up the end of
+ * the job for long.
+ * <p>
+ * The probe budget does not depend on the budget of the render, so the same view is cut the same
+ * way whatever its budget; tiles stay identical when only the budget is raised, and refine from
+ * their escape state.
+ * <p>
+ * Enabled in the client configuration:
+ * <pre>
+ * mandelbrot.tile.adaptive = true
+ * </pre>
+ */
+public class AdaptiveTiling {
+
+    /**
+     * Pixels between two probe samples, in both directions.
+     */
+    static final int PROBE_SPACING = 8;
+
+    /**
+     * Iteration budget of the probe samples.
+     */
+    static final int PROBE_BUDGET = 256;
+
+    /**
+     * Tiles are not split below this size.
+     */
+    static final int MIN_TILE_SIZE = 16;
+
+    /**
+     * Merged tiles hold at most this many base tiles worth of pixels.
+     */
+    private static final int MAX_MERGE = 4;
+
+    private final int width, height;
+    private final int columns, rows;
+
+    /**
+     * Estimated cost of one pixel of each probe cell, row by row.
+     */
+    private final int[] cellCosts;
+
+    /**
+     * Runs the pre-pass for a render.
+     */
+    public AdaptiveTiling(RenderSpec spec) {
+        width = spec.getWidth();
+        height = spec.getHeight();
+        columns = (width + PROBE_SPACING - 1) / PROBE_SPACING;
+        rows = (height + PROBE_SPACING - 1) / PROBE_SPACING;
+        cellCosts = new int[columns * rows];
+        EscapeTimeKernel kernel = new EscapeTimeKernel();
+        for (int row = 0; row < rows; row++) {
+            int h = Math.min(row * PROBE_SPACING + PROBE_SPACING / 2, height - 1);
+            double y0 = spec.getMaxY() - (h + 0.5) / height * spec.getViewHeight();
+            for (int column = 0; column < columns; column++) {
+                int w = Math.min(column * PROBE_SPACING + PROBE_SPACING / 2, width - 1);
+                double x0 = spec.getMinX() + (w + .5) / width * spec.getViewWidth();
+                // the kernel answers these without iterating
+                cellCosts[row * columns + column] = EscapeTimeKernel.isInMainCardioidOrBulb(x0, y0)
+                        ? 1 : 1 + kernel.iterate(x0, y0, PROBE_BUDGET);
+            }
+        }
+    }
+
+    /**
+     * @return the estimated cost of a tile, in probe iterations.
+     */
+    public long cost(Tile tile) {
+        long cost = 0;
+        int x1 = tile.getX() + tile.getWidth();
+        int y1 = tile.getY() + tile.getHeight();
+        for (int row = tile.getY() / PROBE_SPACING; row * PROBE_SPACING < y1; row++) {
+            int overlapY = Math.min(y1, (row + 1) * PROBE_SPACING) - Math.max(tile.getY(), row * PROBE_SPACING);
+            for (int column = tile.getX() / PROBE_SPACING; column * PROBE_SPACING < x1; column++) {
+                int overlapX = Math.min(x1, (column + 1) * PROBE_SPACING) - Math.max(tile.getX(), column * PROBE_SPACING);
+                cost += (long) overlapX * overlapY * cellCosts[row * columns + column];
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * @return the tiles of the layout, with the expensive ones split and the cheap ones merged.
+     */
+    public List<Tile> split(TileLayout layout) {
+        List<Tile> base = layout.split(width, height);
+        long total = 0;
+        int maxPixels = 0;
+        for (Tile tile : base) {
+            total += cost(tile);
+            maxPixels = Math.max(maxPixels, tile.getPixelCount());
+        }
+        long mean = total / base.size();
+
+        List<Tile> tiles = new ArrayList<>();
+        Tile merged = null;
+        long mergedCost = 0;
+        for (Tile tile : base) {
+            long cost = cost(tile);
+            if (merged != null && tile.getY() == merged.getY() && tile.getHeight() == merged.getHeight()
+                    && tile.getX() == merged.getX() + merged.getWidth()
+                    && mergedCost + cost <= mean && merged.getPixelCount() + tile.getPixelCount() <= MAX_MERGE * maxPixels) {
+                merged = new Tile(merged.getX(), merged.getY(), merged.getWidth() + tile.getWidth(), merged.getHeight());
+                mergedCost += cost;
+                continue;
+            }
+            if (merged != null) {
+                tiles.add(merged);
+                merged = null;
+            }
+            if (cost > 2 * mean) {
+                subdivide(tile, cost, mean, tiles);
+            } else {
+                merged = tile;
+                mergedCost = cost;
+            }
+        }
+        if (merged != null) {
+            tiles.add(merged);
+        }
+        return tiles;
+    }
+
+    /**
+     * Adds the tile to the list, split in halves until they cost at most twice the mean.
+     */
+    private void subdivide(Tile tile, long cost, long mean, List<Tile> tiles) {
+        boolean vertical = tile.getWidth() >= tile.getHeight();
+        int size = vertical ? tile.getWidth() : tile.getHeight();
+        if (cost <= 2 * mean || size < 2 * MIN_TILE_SIZE) {
+            tiles.add(tile);
+            return;
+        }
+        int half = size / 2;
+        Tile first, second;
+        if (vertical) {
+            first = new Tile(tile.getX(), tile.getY(), half, tile.getHeight());
+            second = new Tile(tile.getX() + half, tile.getY(), size - half, tile.getHeight());
+        } else {
+            first = new Tile(tile.getX(), tile.getY(), tile.getWidth(), half);
+            second = new Tile(tile.getX(), tile.getY() + half, tile.getWidth(), size - half);
+        }
+        subdivide(first, cost(first), mean, tiles);
+        subdivide(second, cost(second), mean, tiles);
+    }
+}
@@ -17,18 +17,17 @@
  */
 package be.kuleuven.mandelbrot;
 
-import org.jppf.client.JPPFClient;
-import org.jppf.client.JPPFConnectionPool;
-import org.jppf.client.JPPFJob;
-import org.jppf.client.Operator;
+import org.jppf.node.protocol.DataProvider;
+import org.jppf.node.protocol.MemoryMapDataProvider;
 import org.jppf.node.protocol.Task;
+import org.jppf.utils.JPPFConfiguration;
 
 import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 
 
@@ -41,7 +40,88 @@ import java.util.Random;
  */
 public class ApplicationRunner {
 
-    private static JPPFClient jppfClient = new JPPFClient();
+    /**
+     * How renders are executed: {@code jppf}, {@code local} or {@code auto}, see {@link RenderBackend}.
+     */
+    private static final String backendMode = JPPFConfiguration.getProperties().getString("mandelbrot.backend", "auto").trim();
+
+    /**
+     * With the {@code auto} backend, renders computing at most this many samples run locally.
+     */
+    private static final long localSamples = JPPFConfiguration.getProperties().getLong("mandelbrot.backend.local.samples", 512L * 512);
+
+    /**
+     * The backends, created on first use so the grid is only connected to when a render needs it.
+     */
+    private static RenderBackend jppfBackend, localBackend;
+
+    /**
+     * Whether tiles are sized by their estimated cost rather than all alike, see {@link AdaptiveTiling}.
+     */
+    private static final boolean adaptiveTiles = JPPFConfiguration.getProperties().getBoolean("mandelbrot.tile.adaptive", true);
+
+    /**
+     * Iteration counts of tiles rendered by earlier jobs, shared by all runners of this client. They are kept
+     * packed by the {@link CountCodec}, a fraction of 4 bytes per sample, so that super sampled frames fit.
+     */
+    private static final TileCache<byte[]> tileCache = TileCache.fromConfiguration();
+
+    /**
+     * Whether tasks return the escape state of their samples, so that raising the iteration budget
+     * of a view only iterates the samples that had not escaped yet.
+     */
+    private static final boolean refine = JPPFConfiguration.getProperties().getBoolean("mandelbrot.refine.enabled", true);
+
+    /**
+     * Whether tasks run on the grid return their counts packed by the {@link CountCodec}.
+     */
+    private static final boolean packedCounts = JPPFConfiguration.getProperties().getBoolean("mandelbrot.result.packed", true);
+
+    /**
+     * Escape states of rendered tiles, looked up regardless of the iteration budget.
+     */
+    private static final TileCache<EscapeState> escapeStates = new TileCache<>(
+            JPPFConfiguration.getProperties().getLong("mandelbrot.refine.cache.size", 64L) * 1024 * 1024, EscapeState.WEIGHER);
+
+    /**
+     * Tiles rendered in earlier sessions, {@code null} when the store is disabled.
+     */
+    private static final TileStore tileStore = TileStore.fromConfiguration();
+
+    /**
+     * The metrics of the completed jobs of all runners of this client.
+     */
+    private static final RenderMetrics renderMetrics = RenderMetrics.fromConfiguration();
+
+    /**
+     * The render parameters of the current job.
+     */
+    private RenderSpec spec;
+
+    /**
+     * Number of tiles of the current job already written into the frame.
+     */
+    private int completedTiles;
+
+    /**
+     * The tasks currently running on the backend, if any.
+     */
+    private volatile RenderBackend.Execution currentExecution;
+
+    /**
+     * The metrics of the current job, {@code null} until it is submitted.
+     */
+    private volatile JobMetrics jobMetrics;
+
+    /**
+     * Set once {@link #cancel()} has been called; results arriving afterwards are dropped.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * The priority of the jobs of this runner on the backend, see {@link #setPriority(int)}.
+     */
+    private int priority;
 
 
     /**
@@ -58,65 +138,302 @@ public class ApplicationRunner {
     /**
      * Create a JPPF job that can be submitted for execution.
      *
+     * One task is added per tile of the given layout, which is adjusted to the cost of the tiles
+     * when {@code mandelbrot.tile.adaptive} is set. The tasks run on the grid or in this JVM,
+     * see {@link RenderBackend}. The iteration counts of the tiles are written into the frame, which
+     * colours them, as their results come back, rather than once the whole job is done.
+     * Tiles found in the tile cache or the tile store are written immediately and no task is
+     * created for them; when all tiles are known no job is submitted at all. Tiles rendered earlier
+     * with a smaller iteration budget are refined from their escape state rather than recomputed.
+     * Pixels already known from the previous render, see {@link Reprojection}, are not computed again.
+     *
+     * @param spec the render parameters, shared by all tasks through the job's data provider.
+     * @param frame receives the counts of the render, and colours them into its image; {@code null} to only
+     * fill the tile cache and the tile store, as a {@link Prefetcher} does.
      * @param jobName an arbitrary, human-readable name given to the job.
-     * @return an instance of the {@link JPPFJob JPPFJob} class.
+     * @param tileLayout decides how the image is cut into tasks.
+     * @param listener notified after each tile has been written into the frame, may be {@code null}.
+     * @param knownCounts counts of the image already known from the previous render, {@link TemplateJPPFTask#UNKNOWN}
+     * where unknown, may be {@code null}. They are shown but not cached, nor are the tiles computed around them.
      * @throws Exception if an error occurs while creating the job or adding tasks.
      */
-    public void createJob(Rectangle2D.Double viewPort, BufferedImage image, int width, int height, final String jobName, Random rnd) throws Exception {
-        // create a JPPF job
-        JPPFJob job = new JPPFJob();
-        // give this job a readable name that we can use to monitor and manage it.
-        job.setName(jobName);
+    public void createJob(RenderSpec spec, final Frame frame, TileLayout tileLayout, final String jobName,
+                          final RenderListener listener, int[] knownCounts) throws Exception {
+        // deep zooms are not cached: their viewport is too coarse to tell them apart
+        boolean deep = spec.isDeepZoom();
+        // escape states have no fractions, refining a smooth render from them would leave bands
+        boolean refineTiles = refine && !deep && !spec.isSmooth();
+        spec = spec.withEscapeState(refineTiles).withPackedCounts(packedCounts);
+        this.spec = spec;
+        if (cancelled) {
+            return;
+        }
+        if (frame != null) {
+            frame.start(spec);
+        }
+        List<Tile> tiles = adaptiveTiles && !deep
+                ? new AdaptiveTiling(spec).split(tileLayout)
+                : tileLayout.split(spec.getWidth(), spec.getHeight());
+        final int totalTiles = tiles.size();
+        completedTiles = 0;
 
-        for (int w = 0; w < width; w++) {
-            //setProgress((int)(100.0 * w / width));
+        DataProvider dataProvider = new MemoryMapDataProvider();
+        dataProvider.setParameter(RenderSpec.KEY, spec);
+        if (deep && PerturbationKernel.isNeeded(spec.getViewWidth(), spec.getWidth())) {
+            // one arbitrary precision orbit for the whole job, the tasks only iterate offsets from it
+            dataProvider.setParameter(ReferenceOrbit.KEY, ReferenceOrbit.compute(spec));
+        }
 
-            // add a task to the job.
-            Task<?> task = job.add(new TemplateJPPFTask(width, viewPort, height, w, rnd));
-            // provide a user-defined name for the task
-            task.setId(jobName + " - Template task");
+        List<TemplateJPPFTask> tasks = new ArrayList<>();
+        long samples = 0;
+        int cachedTiles = 0, reprojectedTiles = 0;
+        for (Tile tile : tiles) {
+            if (cancelled) {
+                return;
+            }
+            int[] cached = deep ? null : lookupTile(new TileKey(spec, tile));
+            if (cached != null) {
+                cachedTiles++;
+                tileDone(frame, tile, cached, listener, totalTiles);
+                continue;
+            }
+            int[] known = knownCounts != null ? Reprojection.tileCounts(knownCounts, spec.getWidth(), tile) : null;
+            if (known != null && Reprojection.isComplete(known)) {
+                // only close to the counts of this render's samples, not cached
+                reprojectedTiles++;
+                tileDone(frame, tile, known, listener, totalTiles);
+                continue;
+            }
+            EscapeState previous = null;
+            if (refineTiles && known == null) {
+                previous = escapeStates.get(TileKey.ignoringBudget(spec, tile));
+                if (previous != null && previous.getMaxIterations() >= spec.getMaxIterations()) {
+                    // only a larger budget can continue from there
+                    previous = null;
+                }
+            }
+            TemplateJPPFTask mandelbrotTask = new TemplateJPPFTask(tile, previous);
+            mandelbrotTask.setKnownCounts(known);
+            tasks.add(mandelbrotTask);
+            samples += (long) tile.getPixelCount() * spec.getSuperSamples();
         }
 
-        job.setBlocking(false);
-        jppfClient.submitJob(job);
-        List<Task<?>> results = job.awaitResults();
-        processExecutionResults(image, height, job.getName(), results);
+        if (cancelled) {
+            return;
+        }
+        if (tasks.isEmpty()) {
+            System.out.printf("All %d tiles of job '%s' were known: %d cached, %d reprojected\n",
+                    totalTiles, jobName, cachedTiles, reprojectedTiles);
+            frameDone(frame);
+            return;
+        }
+
+        RenderBackend backend = backendFor(samples);
+        jobMetrics = new JobMetrics(jobName);
+        RenderBackend.Execution execution = backend.submit(jobName, dataProvider, tasks, priority, new RenderBackend.Callback() {
+            @Override
+            public void tasksReturned(List<? extends Task<?>> results) {
+                processExecutionResults(frame, jobName, results, listener, totalTiles);
+            }
+        });
+        currentExecution = execution;
+        // cancel() may have run before the execution was known to it
+        if (cancelled) {
+            execution.cancel();
+        }
+        execution.awaitResults();
+        currentExecution = null;
+        if (cancelled) {
+            System.out.printf("Job '%s' was cancelled\n", jobName);
+            return;
+        }
+
+        frameDone(frame);
+        renderMetrics.jobCompleted(jobMetrics);
+        JobMetrics.TaskMetrics slowest = jobMetrics.getSlowestTask();
+        System.out.printf("Job '%s': %d tasks, first result after %.1f ms, last after %.1f ms, slowest task %s took %.1f ms on %s\n",
+                jobName, tasks.size(), jobMetrics.getFirstResultNanos() / 1e6, jobMetrics.getLastResultNanos() / 1e6,
+                slowest.getTile(), slowest.getComputeNanos() / 1e6, slowest.getNode());
 
         System.out.println("gelukt!!! :)");
     }
 
     /**
-     * Process the execution results of each submitted task.
+     * Process the execution results of a batch of tasks returned by a node.
      *
      * @param jobName the name of the job whose results are processed.
      * @param results the tasks results after execution on the grid.
+     * @param listener notified for each tile written into the frame, may be {@code null}.
+     * @param totalTiles the number of tiles in the whole job.
      */
-    public synchronized void processExecutionResults(BufferedImage image, int height, final String jobName, final List<Task<?>> results) {
+    public synchronized void processExecutionResults(Frame frame, final String jobName, final List<? extends Task<?>> results,
+                                                     RenderListener listener, int totalTiles) {
+        if (cancelled) {
+            // results of a job the user is no longer looking at
+            return;
+        }
 
 // print a results header
         System.out.printf("Results for job '%s' :\n", jobName);
         // process the results
-        int w = 0;
         for (Task<?> task : results) {
             String taskName = task.getId();
-            //setProgress((int) (100.0 * w / width));
-
+            jobMetrics.taskReturned((TemplateJPPFTask) task);
 
             // if the task execution resulted in an exception
             if (task.getThrowable() != null) {
                 // process the exception here ...
                 System.out.println(taskName + ", an exception was raised: " + task.getThrowable().getMessage());
             } else {
-                float[][] rgbValues = (float[][]) task.getResult();
+                TemplateJPPFTask mandelbrotTask = (TemplateJPPFTask) task;
+                int[] counts = mandelbrotTask.getCounts();
 
-                System.out.println(taskName + ", execution result: " + task.getResult());
+                System.out.println(taskName + ", execution result: " + counts);
 
-                for (int h = 0; h < height; h++) {
-                    image.setRGB(w, h, new Color(rgbValues[h][0], rgbValues[h][1], rgbValues[h][2]).getRGB());
+                Tile tile = mandelbrotTask.getTile();
+                // tiles with reprojected counts are not exactly those of this render
+                if (!spec.isDeepZoom() && !mandelbrotTask.hasKnownCounts()) {
+                    storeTile(new TileKey(spec, tile), counts);
                 }
+                if (mandelbrotTask.getEscapeState() != null) {
+                    escapeStates.put(TileKey.ignoringBudget(spec, tile), mandelbrotTask.getEscapeState());
+                }
+                tileDone(frame, tile, counts, listener, totalTiles);
+            }
+        }
+    }
+
+    /**
+     * Sets the priority of the job this runner submits next. Renders the user waits for have priority 0,
+     * the default; speculative ones a lower one, so the grid only works on them when it has nothing else to do.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return the metrics of the job of this runner, as far as its tasks returned, or {@code null} if no job was submitted.
+     */
+    public JobMetrics getJobMetrics() {
+        return jobMetrics;
+    }
+
+    /**
+     * @return the metrics of the completed jobs of all runners.
+     */
+    public static RenderMetrics getRenderMetrics() {
+        return renderMetrics;
+    }
+
+    /**
+     * Looks a tile up in memory first, then on disk.
+     * @return the counts of the tile, or {@code null} if it still needs to be rendered.
+     */
+    private static int[] lookupTile(TileKey key) {
+        byte[] packed = tileCache.get(key);
+        if (packed == null && tileStore != null) {
+            try {
+                packed = tileStore.get(key);
+            } catch (IOException e) {
+                System.out.println("Could not read " + key + " from the tile store: " + e.getMessage());
+            }
+            if (packed != null) {
+                tileCache.put(key, packed);
+            }
+        }
+        return packed != null ? CountCodec.decode(packed) : null;
+    }
+
+    /**
+     * Keeps a tile rendered on the grid in memory and on disk.
+     */
+    private static void storeTile(TileKey key, int[] counts) {
+        byte[] packed = CountCodec.encode(counts);
+        tileCache.put(key, packed);
+        if (tileStore != null) {
+            try {
+                tileStore.put(key, packed);
+            } catch (IOException e) {
+                System.out.println("Could not write " + key + " to the tile store: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a finished tile into the frame and notifies the listener, unless the job was cancelled.
+     */
+    private synchronized void tileDone(Frame frame, Tile tile, int[] counts, RenderListener listener, int totalTiles) {
+        if (cancelled) {
+            // the frame already belongs to the render that replaced this one
+            return;
+        }
+        if (frame != null) {
+            frame.writeTile(tile, counts);
+        }
+        completedTiles++;
+        if (listener != null) {
+            listener.tileRendered(tile, completedTiles, totalTiles);
+        }
+    }
+
+    /**
+     * Colours a complete frame again when its colouring depends on all of its counts.
+     */
+    private static void frameDone(Frame frame) {
+        if (frame == null) {
+            return;
+        }
+        Colouring colouring = frame.getColouring();
+        if (colouring.isFrameWide()) {
+            frame.recolour(colouring);
+        }
+    }
+
+    /**
+     * Cancels the job submitted by this runner. The backend stops the tasks still running,
+     * and results that still come back are ignored.
+     */
+    public void cancel() {
+        synchronized (this) {
+            // once the lock is released no more tiles of this job get written
+            cancelled = true;
+        }
+        RenderBackend.Execution execution = currentExecution;
+        if (execution != null) {
+            execution.cancel();
+        }
+    }
 
+    /**
+     * Picks the backend for a render, according to the {@code mandelbrot.backend} properties.
+     * @param samples the number of samples the render still has to compute.
+     */
+    private static synchronized RenderBackend backendFor(long samples) {
+        boolean local = backendMode.equalsIgnoreCase("local")
+                || (!backendMode.equalsIgnoreCase("jppf") && samples <= localSamples);
+        if (local) {
+            if (localBackend == null) {
+                localBackend = new LocalBackend(JPPFConfiguration.getProperties().getInt("mandelbrot.backend.local.threads", 0));
             }
-            w++;
+            return localBackend;
+        }
+        if (jppfBackend == null) {
+            // create the JPPFClient. This constructor call causes JPPF to read the configuration file
+            // and connect with one or multiple JPPF drivers.
+            jppfBackend = new JPPFBackend();
+        }
+        return jppfBackend;
+    }
+
+    /**
+     * Copies the packed ARGB pixels of a tile into the raster of an image, one row at a time.
+     * The image must be of type {@link BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_RGB}.
+     */
+    static void writeTile(BufferedImage image, Tile tile, int[] pixels) {
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int imageWidth = image.getWidth();
+        for (int row = 0; row < tile.getHeight(); row++) {
+            System.arraycopy(pixels, row * tile.getWidth(), data, (tile.getY() + row) * imageWidth + tile.getX(), tile.getWidth());
         }
     }
 }
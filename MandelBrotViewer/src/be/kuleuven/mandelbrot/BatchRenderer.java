@@ -0,0 +1,327 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+
+import javax.imageio.ImageIO;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a sequence of views without the viewer, such as the frames of a zoom animation, and hands
+ * every frame, in order, to a {@link FrameSink}, by default one that writes them to disk.
+ * <p>
+ * Several renders are in flight at once, each with its own {@link ApplicationRunner} and {@link Frame},
+ * so the grid already computes the next frames while the tiles of a frame are still being written
+ * into its image and the frame before it is being encoded. Frames are handed to the sink on the
+ * calling thread, each once it and all frames before it are complete; a frame finished early waits
+ * for the earlier ones, and at most twice as many frames as there are jobs in flight are kept in memory.
+ * <p>
+ * JPPF only sends jobs to a driver concurrently over different connections, so the connection pool
+ * of the driver, {@code driver1.jppf.pool.size} in the client configuration, should be at least the
+ * number of jobs in flight.
+ * <pre>
+ * java be.kuleuven.mandelbrot.BatchRenderer [--out dir] [--format png|raw] [--size 1024x768] [--iterations n]
+ *     [--super-samples n] [--smooth] [--palette green|fire] [--mode ramp|histogram] [--contrast c] [--tiles 64]
+ *     [--jobs n] (--zoom x0 y0 width0 x1 y1 width1 frames | --views file)
+ * </pre>
+ * A zoom goes from the view centred on (x0, y0), width0 wide, to the one centred on (x1, y1), width1 wide,
+ * by the same factor every frame. A views file has one view per line, as its centre and width:
+ * {@code x y width}; empty lines and lines starting with {@code #} are skipped. Frames are written as
+ * {@code frame00000.png}, or as {@code .raw} files of big endian packed ARGB pixels, row by row, which
+ * e.g. ffmpeg reads with {@code -f rawvideo -pixel_format argb -video_size 1024x768}.
+ */
+public class BatchRenderer {
+
+    /**
+     * Receives the rendered frames, in the order of their views, on the thread that called {@link #render}.
+     */
+    public interface FrameSink {
+
+        /**
+         * @param index the index of the view of the frame.
+         * @param frame the complete frame; not used by the renderer afterwards.
+         * @throws IOException stops the batch.
+         */
+        void frameRendered(int index, Frame frame) throws IOException;
+    }
+
+    /**
+     * A frame whose render completed, with the time it took.
+     */
+    private static class Rendered {
+        final Frame frame;
+        final long renderNanos;
+        final int failedTasks;
+
+        Rendered(Frame frame, long renderNanos, int failedTasks) {
+            this.frame = frame;
+            this.renderNanos = renderNanos;
+            this.failedTasks = failedTasks;
+        }
+    }
+
+    private final TileLayout tileLayout;
+    private final Colouring colouring;
+    private final int jobsInFlight;
+
+    /**
+     * @param tileLayout decides how each frame is cut into tasks.
+     * @param colouring colours the frames.
+     * @param jobsInFlight the number of frames rendered at the same time.
+     */
+    public BatchRenderer(TileLayout tileLayout, Colouring colouring, int jobsInFlight) {
+        if (jobsInFlight < 1) {
+            throw new IllegalArgumentException("at least one job must be in flight: " + jobsInFlight);
+        }
+        this.tileLayout = tileLayout;
+        this.colouring = colouring;
+        this.jobsInFlight = jobsInFlight;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String out = "frames";
+        String format = "png";
+        int width = 1024, height = 768;
+        int maxIterations = 1000, superSamples = 1;
+        boolean smooth = false;
+        Colouring.Palette palette = Colouring.DEFAULT.getPalette();
+        Colouring.Mode mode = Colouring.DEFAULT.getMode();
+        double contrast = Colouring.DEFAULT.getContrast();
+        TileLayout tileLayout = TileLayout.fromConfiguration();
+        int jobs = JPPFConfiguration.getProperties().getInt("mandelbrot.batch.jobs", 3);
+        String[] zoom = null;
+        String views = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out":
+                    out = args[++i];
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--size":
+                    String[] size = args[++i].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                case "--iterations":
+                    maxIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--super-samples":
+                    superSamples = Integer.parseInt(args[++i]);
+                    break;
+                case "--smooth":
+                    smooth = true;
+                    break;
+                case "--palette":
+                    palette = Colouring.Palette.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--mode":
+                    mode = Colouring.Mode.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--contrast":
+                    contrast = Double.parseDouble(args[++i]);
+                    break;
+                case "--tiles":
+                    tileLayout = TileLayout.parse(args[++i]);
+                    break;
+                case "--jobs":
+                    jobs = Integer.parseInt(args[++i]);
+                    break;
+                case "--zoom":
+                    zoom = new String[7];
+                    for (int z = 0; z < zoom.length; z++) {
+                        zoom[z] = args[++i];
+                    }
+                    break;
+                case "--views":
+                    views = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown argument: " + args[i]);
+            }
+        }
+        if (!format.equals("png") && !format.equals("raw")) {
+            throw new IllegalArgumentException("unknown format: " + format);
+        }
+
+        // the parameters all frames share, the view is replaced for each frame
+        long seed = JPPFConfiguration.getProperties().getLong("mandelbrot.seed", 0L);
+        RenderSpec settings = new RenderSpec(new Rectangle2D.Double(-2.5, -1, 3.5, 2), width, height,
+                maxIterations, superSamples, seed).withSmooth(smooth);
+        List<RenderSpec> specs;
+        if (zoom != null) {
+            specs = zoomPath(settings, new BigDecimal(zoom[0]), new BigDecimal(zoom[1]), Double.parseDouble(zoom[2]),
+                    new BigDecimal(zoom[3]), new BigDecimal(zoom[4]), Double.parseDouble(zoom[5]), Integer.parseInt(zoom[6]));
+        } else if (views != null) {
+            specs = readViews(settings, new File(views));
+        } else {
+            throw new IllegalArgumentException("either --zoom or --views is needed");
+        }
+
+        File dir = new File(out);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        long start = System.nanoTime();
+        new BatchRenderer(tileLayout, new Colouring(palette, mode, contrast), jobs).render(specs, files(dir, format));
+        System.out.printf("Rendered %d frames into %s in %.1f s\n", specs.size(), dir, (System.nanoTime() - start) / 1e9);
+        // the JPPF client keeps threads running
+        System.exit(0);
+    }
+
+    /**
+     * Renders the views and hands their frames to the sink in order. Returns once the last frame was handed over.
+     *
+     * @throws Exception if a render failed or the sink threw; the renders still in flight are abandoned.
+     */
+    public void render(List<RenderSpec> specs, FrameSink sink) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(jobsInFlight);
+        try {
+            Deque<Future<Rendered>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            for (int index = 0; index < specs.size(); index++) {
+                // frames finished out of order wait here, so keep more frames pending than jobs in flight
+                while (submitted < specs.size() && pending.size() < 2 * jobsInFlight) {
+                    pending.add(executor.submit(renderFrame(specs.get(submitted), submitted)));
+                    submitted++;
+                }
+                Rendered rendered = pending.remove().get();
+                long start = System.nanoTime();
+                sink.frameRendered(index, rendered.frame);
+                System.out.printf("Frame %d/%d: rendered in %.1f ms, written in %.1f ms%s\n", index + 1, specs.size(),
+                        rendered.renderNanos / 1e6, (System.nanoTime() - start) / 1e6,
+                        rendered.failedTasks > 0 ? ", " + rendered.failedTasks + " tasks failed" : "");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Renders one frame on a thread of the executor, blocking it until the job is done.
+     */
+    private Callable<Rendered> renderFrame(final RenderSpec spec, final int index) {
+        return new Callable<Rendered>() {
+            @Override
+            public Rendered call() throws Exception {
+                long start = System.nanoTime();
+                Frame frame = new Frame(new BufferedImage(spec.getWidth(), spec.getHeight(), BufferedImage.TYPE_INT_ARGB));
+                frame.recolour(colouring);
+                ApplicationRunner runner = new ApplicationRunner();
+                runner.createJob(spec, frame, tileLayout, String.format("Frame %05d", index), null, null);
+                int failedTasks = 0;
+                if (runner.getJobMetrics() != null) {
+                    for (JobMetrics.TaskMetrics task : runner.getJobMetrics().getTasks()) {
+                        if (task.isFailed()) {
+                            failedTasks++;
+                        }
+                    }
+                }
+                return new Rendered(frame, System.nanoTime() - start, failedTasks);
+            }
+        };
+    }
+
+    /**
+     * @return a sink writing every frame into the directory, as {@code frame00000.png} or {@code frame00000.raw}.
+     */
+    public static FrameSink files(final File dir, final String format) {
+        return new FrameSink() {
+            @Override
+            public void frameRendered(int index, Frame frame) throws IOException {
+                File file = new File(dir, String.format("frame%05d.%s", index, format));
+                if (format.equals("raw")) {
+                    int[] data = ((DataBufferInt) frame.getImage().getRaster().getDataBuffer()).getData();
+                    ByteBuffer bytes = ByteBuffer.allocate(4 * data.length);
+                    bytes.asIntBuffer().put(data);
+                    try (OutputStream stream = new FileOutputStream(file)) {
+                        stream.write(bytes.array());
+                    }
+                } else if (!ImageIO.write(frame.getImage(), format, file)) {
+                    throw new IOException("No writer for " + format);
+                }
+            }
+        };
+    }
+
+    /**
+     * The views of a zoom from one view to another, zooming in or out by the same factor every frame.
+     * The centre moves such that the point the zoom converges to stays at the same place in the frames.
+     *
+     * @param settings the image size, budget and other options of all frames; its view is ignored.
+     * @param frames the number of views, the first and the last included.
+     */
+    public static List<RenderSpec> zoomPath(RenderSpec settings, BigDecimal startX, BigDecimal startY, double startWidth,
+                                            BigDecimal endX, BigDecimal endY, double endWidth, int frames) {
+        List<RenderSpec> specs = new ArrayList<>(frames);
+        for (int i = 0; i < frames; i++) {
+            double progress = frames > 1 ? (double) i / (frames - 1) : 0;
+            double viewWidth = startWidth * Math.pow(endWidth / startWidth, progress);
+            // how far from the end the centre still is, in proportion to how far the width still has to go
+            double remaining = startWidth != endWidth ? (viewWidth - endWidth) / (startWidth - endWidth) : 1 - progress;
+            BigDecimal weight = new BigDecimal(remaining);
+            specs.add(view(settings, endX.add(startX.subtract(endX).multiply(weight)),
+                    endY.add(startY.subtract(endY).multiply(weight)), viewWidth));
+        }
+        return specs;
+    }
+
+    /**
+     * Reads views from a file, one per line as {@code x y width}.
+     *
+     * @param settings the image size, budget and other options of all frames; its view is ignored.
+     */
+    public static List<RenderSpec> readViews(RenderSpec settings, File file) throws IOException {
+        List<RenderSpec> specs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                specs.add(view(settings, new BigDecimal(fields[0]), new BigDecimal(fields[1]), Double.parseDouble(fields[2])));
+            }
+        }
+        return specs;
+    }
+
+    /**
+     * @return the settings, for the view with the given centre and width; its height follows from the image.
+     * Views too deep for doubles keep their exact centre, as in the viewer.
+     */
+    static RenderSpec view(RenderSpec settings, BigDecimal centerX, BigDecimal centerY, double viewWidth) {
+        int width = settings.getWidth();
+        double viewHeight = viewWidth * settings.getHeight() / width;
+        RenderSpec spec = new RenderSpec(new Rectangle2D.Double(centerX.doubleValue() - viewWidth / 2,
+                centerY.doubleValue() - viewHeight / 2, viewWidth, viewHeight), width, settings.getHeight(),
+                settings.getMaxIterations(), settings.getSuperSamples(), settings.getSeed())
+                .withComputeMode(settings.getComputeMode())
+                .withSmooth(settings.isSmooth());
+        if (DoubleDoubleKernel.isNeeded(viewWidth, width)) {
+            int scale = ReferenceOrbit.precision(viewWidth / width);
+            spec = spec.withCenter(centerX.setScale(scale, RoundingMode.HALF_EVEN), centerY.setScale(scale, RoundingMode.HALF_EVEN));
+        }
+        return spec;
+    }
+}
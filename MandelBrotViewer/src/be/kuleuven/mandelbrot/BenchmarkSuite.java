@@ -0,0 +1,472 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.node.protocol.DataProvider;
+import org.jppf.node.protocol.MemoryMapDataProvider;
+import org.jppf.serialization.JPPFSerialization;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Regression benchmarks of the places where a render spends its time:
+ * <ul>
+ * <li>{@code kernel}: escape time kernel throughput, in points per second, over representative
+ * viewports and iteration budgets, and of all kernels side by side on one view doubles still resolve;
+ * that their counts agree is checked by {@link KernelCheck};</li>
+ * <li>{@code assembly}: copying the pixels of returned tiles into the image, as
+ * {@link ApplicationRunner#processExecutionResults} does, and colouring a frame again from its
+ * iteration counts, as {@link Frame#recolour} does, in megapixels per second;</li>
+ * <li>{@code serialization}: size and round trip time of the task and result payloads with the
+ * serialization configured for JPPF;</li>
+ * <li>{@code transport}: the bytes of the tasks of a whole frame as the nodes return them, and the time
+ * to read them back on the client, with the counts as they are and packed by the {@link CountCodec};</li>
+ * <li>{@code task}: whole tasks as a node runs them, placing and iterating the samples of a
+ * frame, in megapixels per second.</li>
+ * </ul>
+ * Every benchmark is repeated, after warm-up rounds that are not measured, and reported with the
+ * median, fastest and slowest round. Results are machine readable, so runs of two releases can be
+ * compared:
+ * <pre>
+ * java be.kuleuven.mandelbrot.BenchmarkSuite [--format csv|json] [--out file] [--rounds n] [--warmup n] [group...]
+ * </pre>
+ * The groups default to all five.
+ */
+public class BenchmarkSuite {
+
+    /**
+     * One measured benchmark. For throughputs, {@code min} is the slowest round and {@code max} the fastest.
+     */
+    static class Result {
+        final String group, benchmark, params, unit;
+        final double score, min, max;
+        final int rounds;
+
+        Result(String group, String benchmark, String params, String unit, double score, double min, double max, int rounds) {
+            this.group = group;
+            this.benchmark = benchmark;
+            this.params = params;
+            this.unit = unit;
+            this.score = score;
+            this.min = min;
+            this.max = max;
+            this.rounds = rounds;
+        }
+    }
+
+    /**
+     * A piece of work to measure; returns something derived from its output so it cannot be optimized away.
+     */
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    private static final String[] VIEW_NAMES = {"full", "seahorse", "elephant"};
+    private static final Rectangle2D.Double[] VIEWS = {
+            new Rectangle2D.Double(-2.5, -1, 3.5, 2),
+            new Rectangle2D.Double(-0.7437438870, 0.1317509042, 2e-4, 1.5e-4),
+            new Rectangle2D.Double(0.26, -0.0075, 0.02, 0.015)
+    };
+    private static final BigDecimal DEEP_X = new BigDecimal("-0.743643887037158704752191506114774");
+    private static final BigDecimal DEEP_Y = new BigDecimal("0.131825904205311970493132056385139");
+
+    private final int warmupRounds;
+    private final int rounds;
+    private final List<Result> results = new ArrayList<>();
+    /**
+     * Sink of the operations' return values.
+     */
+    private long sink;
+
+    BenchmarkSuite(int warmupRounds, int rounds) {
+        this.warmupRounds = warmupRounds;
+        this.rounds = rounds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String format = "csv";
+        String out = null;
+        int rounds = 5, warmup = 3;
+        List<String> groups = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    groups.add(args[i]);
+            }
+        }
+        if (groups.isEmpty()) {
+            groups = Arrays.asList("kernel", "assembly", "serialization", "transport", "task");
+        }
+
+        BenchmarkSuite suite = new BenchmarkSuite(warmup, rounds);
+        for (String group : groups) {
+            switch (group) {
+                case "kernel":
+                    suite.kernels();
+                    break;
+                case "assembly":
+                    suite.assembly();
+                    break;
+                case "serialization":
+                    suite.serialization();
+                    break;
+                case "transport":
+                    suite.transport();
+                    break;
+                case "task":
+                    suite.tasks();
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown benchmark group: " + group);
+            }
+        }
+
+        OutputStream stream = out == null ? System.out : new FileOutputStream(out);
+        PrintStream print = new PrintStream(stream, true, "UTF-8");
+        if (format.equals("json")) {
+            suite.writeJson(print);
+        } else {
+            suite.writeCsv(print);
+        }
+        if (out != null) {
+            print.close();
+        }
+    }
+
+    /**
+     * Escape time throughput of the double kernels over the views and budgets, of all kernels on the same
+     * samples around the deep zoom centre, and of the deep zoom kernels.
+     */
+    void kernels() throws Exception {
+        int width = 200, height = 150;
+        for (int v = 0; v < VIEWS.length; v++) {
+            for (int maxIterations : new int[] {1000, 10000}) {
+                RenderSpec spec = new RenderSpec(VIEWS[v], width, height, maxIterations, 1, 0);
+                for (EscapeTimeKernel kernel : new EscapeTimeKernel[] {new EscapeTimeKernel(), new LaneKernel()}) {
+                    kernel(spec, kernel, VIEW_NAMES[v], false);
+                }
+            }
+        }
+
+        // shallow enough for doubles, so the cost of the deep kernels' precision can be compared
+        double shallowWidth = 2e-4, shallowHeight = shallowWidth * height / width;
+        RenderSpec shallow = new RenderSpec(new Rectangle2D.Double(DEEP_X.doubleValue() - shallowWidth / 2,
+                DEEP_Y.doubleValue() - shallowHeight / 2, shallowWidth, shallowHeight), width, height, 5000, 1, 0)
+                .withCenter(DEEP_X, DEEP_Y);
+        kernel(shallow, new EscapeTimeKernel(), "shallow", false);
+        kernel(shallow, new LaneKernel(), "shallow", false);
+        kernel(shallow, new DoubleDoubleKernel(DEEP_X, DEEP_Y), "shallow", true);
+        kernel(shallow, new PerturbationKernel(ReferenceOrbit.compute(shallow)), "shallow", true);
+
+        double viewWidth = 1e-17 * width;
+        RenderSpec deep = new RenderSpec(new Rectangle2D.Double(DEEP_X.doubleValue(), DEEP_Y.doubleValue(),
+                viewWidth, viewWidth * height / width), width, height, 5000, 1, 0)
+                .withCenter(DEEP_X, DEEP_Y);
+        kernel(deep, new DoubleDoubleKernel(DEEP_X, DEEP_Y), "deep", true);
+        kernel(deep, new PerturbationKernel(ReferenceOrbit.compute(deep)), "deep", true);
+    }
+
+    private void kernel(RenderSpec spec, final EscapeTimeKernel kernel, String view, boolean deep) throws Exception {
+        final int n = spec.getWidth() * spec.getHeight();
+        final double[] cx = new double[n];
+        final double[] cy = new double[n];
+        double left = deep ? -spec.getViewWidth() / 2 : spec.getMinX();
+        double top = deep ? spec.getViewHeight() / 2 : spec.getMaxY();
+        for (int h = 0, i = 0; h < spec.getHeight(); h++) {
+            for (int w = 0; w < spec.getWidth(); w++, i++) {
+                cx[i] = left + (w + .5) / spec.getWidth() * spec.getViewWidth();
+                cy[i] = top - (h + .5) / spec.getHeight() * spec.getViewHeight();
+            }
+        }
+        final int maxIterations = spec.getMaxIterations();
+        double[] nanos = measure(new Operation() {
+            @Override
+            public long run() {
+                int[] iterations = new int[n];
+                kernel.iterate(cx, cy, new double[n], new double[n], iterations, n, maxIterations);
+                return iterations[n / 2];
+            }
+        });
+        addThroughput("kernel", kernel.getClass().getSimpleName(),
+                String.format("view=%s;maxIterations=%d;points=%d", view, maxIterations, n), "points/s", n, nanos);
+    }
+
+    /**
+     * Copying returned tiles into a frame, with the row copies of {@link ApplicationRunner#writeTile}
+     * and, as a baseline, pixel by pixel through {@link BufferedImage#setRGB}; then colouring a
+     * whole frame again from its counts, with and without histogram equalization.
+     */
+    void assembly() throws Exception {
+        int width = 800, height = 600;
+        for (int tileSize : new int[] {32, 64, 128}) {
+            final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            final List<Tile> tiles = TileLayout.bySize(tileSize, tileSize).split(width, height);
+            final List<int[]> pixels = new ArrayList<>();
+            Random random = new Random(tileSize);
+            for (Tile tile : tiles) {
+                int[] p = new int[tile.getPixelCount()];
+                for (int i = 0; i < p.length; i++) {
+                    p[i] = 0xff000000 | random.nextInt(0x1000000);
+                }
+                pixels.add(p);
+            }
+            String params = String.format("image=%dx%d;tile=%d", width, height, tileSize);
+            addThroughput("assembly", "writeTile", params, "Mpixels/s", width * height / 1e6, measure(new Operation() {
+                @Override
+                public long run() {
+                    for (int t = 0; t < tiles.size(); t++) {
+                        ApplicationRunner.writeTile(image, tiles.get(t), pixels.get(t));
+                    }
+                    return image.getRGB(0, 0);
+                }
+            }));
+            addThroughput("assembly", "setRGB", params, "Mpixels/s", width * height / 1e6, measure(new Operation() {
+                @Override
+                public long run() {
+                    for (int t = 0; t < tiles.size(); t++) {
+                        Tile tile = tiles.get(t);
+                        int[] p = pixels.get(t);
+                        for (int i = 0; i < p.length; i++) {
+                            image.setRGB(tile.getX() + i % tile.getWidth(), tile.getY() + i / tile.getWidth(), p[i]);
+                        }
+                    }
+                    return image.getRGB(0, 0);
+                }
+            }));
+        }
+
+        RenderSpec spec = new RenderSpec(VIEWS[0], width, height, 1000, 1, 0).withSmooth(true);
+        final Frame frame = new Frame(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+        frame.start(spec);
+        for (Tile tile : TileLayout.bySize(64, 64).split(width, height)) {
+            frame.writeTile(tile, execute(spec, new TemplateJPPFTask(tile)).getCounts());
+        }
+        for (final Colouring.Mode mode : Colouring.Mode.values()) {
+            final Colouring colouring = new Colouring(Colouring.Palette.GREEN, mode, 3);
+            addThroughput("assembly", "recolour", String.format("image=%dx%d;mode=%s", width, height, mode),
+                    "Mpixels/s", width * height / 1e6, measure(new Operation() {
+                @Override
+                public long run() {
+                    frame.recolour(colouring);
+                    return frame.getImage().getRGB(0, 0);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Size and round trip time of what travels between the client and the nodes.
+     */
+    void serialization() throws Exception {
+        RenderSpec spec = new RenderSpec(VIEWS[1], 800, 600, 5000, 1, 0).withEscapeState(true);
+        Tile tile = new Tile(320, 256, 64, 64);
+        payload("renderSpec", spec);
+        payload("task", new TemplateJPPFTask(tile));
+
+        TemplateJPPFTask executed = execute(spec, new TemplateJPPFTask(tile));
+        payload("result", executed);
+        payload("escapeState", executed.getEscapeState());
+        // a refinement task carries the escape state to the node
+        payload("refineTask", new TemplateJPPFTask(tile, executed.getEscapeState()));
+
+        double viewWidth = 1e-25 * 800;
+        RenderSpec deep = new RenderSpec(new Rectangle2D.Double(DEEP_X.doubleValue(), DEEP_Y.doubleValue(),
+                viewWidth, viewWidth * 0.75), 800, 600, 5000, 1, 0).withCenter(DEEP_X, DEEP_Y);
+        payload("referenceOrbit", ReferenceOrbit.compute(deep));
+    }
+
+    /**
+     * The results of a 1024x768 frame in 64x64 tiles, for each view with and without fractions: their
+     * serialized size as they come back from the nodes, the time to pack the counts on the nodes, and the
+     * time to deserialize and unpack them on the client, with and without {@link RenderSpec#withPackedCounts packing}.
+     */
+    void transport() throws Exception {
+        int width = 1024, height = 768;
+        final JPPFSerialization serialization = JPPFSerialization.Factory.getSerialization();
+        List<Tile> tiles = TileLayout.bySize(64, 64).split(width, height);
+        for (int v = 0; v < VIEWS.length; v++) {
+            for (boolean smooth : new boolean[] {false, true}) {
+                for (boolean packed : new boolean[] {false, true}) {
+                    RenderSpec spec = new RenderSpec(VIEWS[v], width, height, 1000, 1, 0)
+                            .withSmooth(smooth).withPackedCounts(packed);
+                    final List<byte[]> returned = new ArrayList<>();
+                    final List<int[]> counts = new ArrayList<>();
+                    long bytes = 0;
+                    for (Tile tile : tiles) {
+                        TemplateJPPFTask task = new TemplateJPPFTask(tile);
+                        // counts are only packed on a node
+                        task.setInNode(true);
+                        execute(spec, task);
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        serialization.serialize(task, out);
+                        returned.add(out.toByteArray());
+                        bytes += out.size();
+                        counts.add(task.getCounts());
+                    }
+                    String params = String.format("view=%s;smooth=%b;packed=%b;image=%dx%d;tile=64",
+                            VIEW_NAMES[v], smooth, packed, width, height);
+                    results.add(new Result("transport", "frame.bytes", params, "bytes", bytes, bytes, bytes, 1));
+                    if (packed) {
+                        addTime("transport", "frame.pack", params, measure(new Operation() {
+                            @Override
+                            public long run() {
+                                long size = 0;
+                                for (int[] tileCounts : counts) {
+                                    size += CountCodec.encode(tileCounts).length;
+                                }
+                                return size;
+                            }
+                        }));
+                    }
+                    addTime("transport", "frame.read", params, measure(new Operation() {
+                        @Override
+                        public long run() throws Exception {
+                            long sum = 0;
+                            for (byte[] task : returned) {
+                                sum += ((TemplateJPPFTask) serialization.deserialize(new ByteArrayInputStream(task))).getCounts()[0];
+                            }
+                            return sum;
+                        }
+                    }));
+                }
+            }
+        }
+    }
+
+    /**
+     * Node throughput: a 1024x768 frame of the whole set in 64x64 tiles, one task per tile.
+     */
+    void tasks() throws Exception {
+        final int width = 1024, height = 768;
+        final RenderSpec spec = new RenderSpec(VIEWS[0], width, height, 1000, 1, 0);
+        final List<Tile> tiles = TileLayout.bySize(64, 64).split(width, height);
+        final DataProvider dataProvider = new MemoryMapDataProvider();
+        dataProvider.setParameter(RenderSpec.KEY, spec);
+        addThroughput("task", "TemplateJPPFTask", String.format("image=%dx%d;tile=64;maxIterations=%d", width, height,
+                spec.getMaxIterations()), "Mpixels/s", width * height / 1e6, measure(new Operation() {
+            @Override
+            public long run() {
+                long sum = 0;
+                for (Tile tile : tiles) {
+                    TemplateJPPFTask task = new TemplateJPPFTask(tile);
+                    task.setDataProvider(dataProvider);
+                    task.run();
+                    sum += task.getCounts()[0];
+                }
+                return sum;
+            }
+        }));
+    }
+
+    /**
+     * Runs a task here, as a node would.
+     */
+    private static TemplateJPPFTask execute(RenderSpec spec, TemplateJPPFTask task) {
+        DataProvider dataProvider = new MemoryMapDataProvider();
+        dataProvider.setParameter(RenderSpec.KEY, spec);
+        task.setDataProvider(dataProvider);
+        task.run();
+        // the data provider travels with the job, not with the task
+        task.setDataProvider(null);
+        return task;
+    }
+
+    private void payload(String name, final Object payload) throws Exception {
+        final JPPFSerialization serialization = JPPFSerialization.Factory.getSerialization();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serialization.serialize(payload, bytes);
+        final byte[] serialized = bytes.toByteArray();
+        String params = "serialization=" + serialization.getClass().getSimpleName();
+        results.add(new Result("serialization", name + ".size", params, "bytes",
+                serialized.length, serialized.length, serialized.length, 1));
+
+        addTime("serialization", name + ".serialize", params, measure(new Operation() {
+            @Override
+            public long run() throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(serialized.length);
+                serialization.serialize(payload, out);
+                return out.size();
+            }
+        }));
+        addTime("serialization", name + ".deserialize", params, measure(new Operation() {
+            @Override
+            public long run() throws Exception {
+                return serialization.deserialize(new ByteArrayInputStream(serialized)).hashCode();
+            }
+        }));
+    }
+
+    /**
+     * @return the duration of each measured round, in nanoseconds, sorted.
+     */
+    private double[] measure(Operation operation) throws Exception {
+        double[] nanos = new double[rounds];
+        for (int round = 0; round < warmupRounds + rounds; round++) {
+            long start = System.nanoTime();
+            sink += operation.run();
+            long duration = System.nanoTime() - start;
+            if (round >= warmupRounds) {
+                nanos[round - warmupRounds] = duration;
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private void addThroughput(String group, String benchmark, String params, String unit, double work, double[] nanos) {
+        results.add(new Result(group, benchmark, params, unit, work * 1e9 / median(nanos),
+                work * 1e9 / nanos[nanos.length - 1], work * 1e9 / nanos[0], nanos.length));
+    }
+
+    private void addTime(String group, String benchmark, String params, double[] nanos) {
+        results.add(new Result(group, benchmark, params, "us", median(nanos) / 1e3,
+                nanos[0] / 1e3, nanos[nanos.length - 1] / 1e3, nanos.length));
+    }
+
+    private static double median(double[] sorted) {
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    void writeCsv(PrintStream out) {
+        out.println("group,benchmark,params,score,min,max,unit,rounds");
+        for (Result r : results) {
+            out.println(String.format(Locale.ROOT, "%s,%s,%s,%.4g,%.4g,%.4g,%s,%d",
+                    r.group, r.benchmark, r.params, r.score, r.min, r.max, r.unit, r.rounds));
+        }
+    }
+
+    void writeJson(PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            out.print(String.format(Locale.ROOT,
+                    "  {\"group\": \"%s\", \"benchmark\": \"%s\", \"params\": \"%s\", \"score\": %.6g, \"min\": %.6g, \"max\": %.6g, \"unit\": \"%s\", \"rounds\": %d}",
+                    r.group, r.benchmark, r.params, r.score, r.min, r.max, r.unit, r.rounds));
+            out.println(i < results.size() - 1 ? "," : "");
+        }
+        out.println("]");
+    }
+}
@@ -0,0 +1,208 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * Turns the iteration counts returned by the tasks into colours, on the client.
+ * <p>
+ * Every escaped sample is first given a level q in [0, 1]: its count relative to the iteration budget
+ * ({@link Mode#RAMP}), or the share of the escaped samples of the frame that escaped sooner
+ * ({@link Mode#HISTOGRAM}), which spreads the colours evenly over the image whatever the budget.
+ * The level is raised to 1 / contrast and looked up in the {@link Palette}; samples that did not
+ * escape are black. The colour of a pixel is the average colour of its samples.
+ * <p>
+ * A colouring is immutable; as the counts stay on the client, see {@link Frame}, a new colouring
+ * is applied to a rendered image without computing anything again.
+ */
+public final class Colouring {
+
+    /**
+     * Maps the contrasted level c of a sample, and its level q, to a colour.
+     */
+    public enum Palette {
+        /**
+         * The palette the viewer has always used: black far from the set, through green to white close to it.
+         */
+        GREEN("Green") {
+            @Override
+            void add(double q, float c, float[] rgb) {
+                if (q > 0.5) {
+                    // Close to the mandelbrot set the color changes from green to white
+                    rgb[0] += c;
+                    rgb[1] += 1.f;
+                    rgb[2] += c;
+                } else {
+                    // Far away it changes from black to green
+                    rgb[1] += c;
+                }
+            }
+        },
+        /**
+         * Black through red and yellow to white.
+         */
+        FIRE("Fire") {
+            @Override
+            void add(double q, float c, float[] rgb) {
+                rgb[0] += Math.min(1, 3 * c);
+                rgb[1] += Math.max(0, Math.min(1, 3 * c - 1));
+                rgb[2] += Math.max(0, 3 * c - 2);
+            }
+        };
+
+        private final String label;
+
+        Palette(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Adds the colour of an escaped sample to the running sum of a pixel.
+         */
+        abstract void add(double q, float c, float[] rgb);
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * How the count of a sample becomes its level.
+     */
+    public enum Mode {
+        RAMP("Ramp"),
+        HISTOGRAM("Histogram");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * The colouring the viewer has always used.
+     */
+    public static final Colouring DEFAULT = new Colouring(Palette.GREEN, Mode.RAMP, 3);
+
+    private static final double SCALE = 1 << TemplateJPPFTask.FRACTION_BITS;
+
+    private final Palette palette;
+    private final Mode mode;
+    private final double contrast;
+    private final double exponent;
+
+    /**
+     * @param contrast how fast colours change far from the set, 1 for linear.
+     */
+    public Colouring(Palette palette, Mode mode, double contrast) {
+        this.palette = palette;
+        this.mode = mode;
+        this.contrast = contrast;
+        this.exponent = 1.0 / contrast;
+    }
+
+    public Palette getPalette() {
+        return palette;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public double getContrast() {
+        return contrast;
+    }
+
+    /**
+     * @return whether the colour of a pixel depends on the counts of the whole frame, so that a frame
+     * can only be coloured correctly once it is complete.
+     */
+    public boolean isFrameWide() {
+        return mode == Mode.HISTOGRAM;
+    }
+
+    /**
+     * Computes the levels of the {@link Mode#HISTOGRAM histogram} mode from the counts of a frame.
+     *
+     * @param counts the counts of the frame, {@link TemplateJPPFTask#UNKNOWN} ones are ignored.
+     * @return the share of the escaped samples that escaped in fewer than n iterations, for n from 0 to
+     * {@code maxIterations}, or {@code null} for the ramp mode, whose levels do not depend on the frame.
+     */
+    public float[] levels(int[] counts, int maxIterations) {
+        if (mode != Mode.HISTOGRAM) {
+            return null;
+        }
+        long[] histogram = new long[maxIterations + 1];
+        long escaped = 0;
+        for (int count : counts) {
+            int iteration = count >> TemplateJPPFTask.FRACTION_BITS;
+            if (count != TemplateJPPFTask.UNKNOWN && iteration < maxIterations) {
+                histogram[iteration + 1]++;
+                escaped++;
+            }
+        }
+        float[] levels = new float[maxIterations + 1];
+        long below = 0;
+        for (int n = 1; n <= maxIterations; n++) {
+            below += histogram[n];
+            levels[n] = escaped == 0 ? 0 : (float) ((double) below / escaped);
+        }
+        return levels;
+    }
+
+    /**
+     * Colours consecutive pixels. Pixels whose first count is {@link TemplateJPPFTask#UNKNOWN} are left as they are.
+     *
+     * @param counts the counts, {@code superSamples} per pixel.
+     * @param countOffset the index of the first count of the first pixel.
+     * @param argb receives the packed ARGB colour of each pixel.
+     * @param argbOffset the index of the colour of the first pixel.
+     * @param pixels the number of pixels to colour.
+     * @param levels the {@link #levels} of the frame, or {@code null} to colour as in the ramp mode.
+     */
+    public void colour(int[] counts, int countOffset, int[] argb, int argbOffset, int pixels, int superSamples,
+                       int maxIterations, float[] levels) {
+        float[] rgb = new float[3];
+        for (int p = 0; p < pixels; p++) {
+            int first = countOffset + p * superSamples;
+            if (counts[first] == TemplateJPPFTask.UNKNOWN) {
+                continue;
+            }
+            rgb[0] = rgb[1] = rgb[2] = 0;
+            for (int s = first; s < first + superSamples; s++) {
+                int iteration = counts[s] >> TemplateJPPFTask.FRACTION_BITS;
+                if (iteration >= maxIterations) {
+                    continue;
+                }
+                double quotient;
+                if (levels == null) {
+                    quotient = counts[s] / SCALE / maxIterations;
+                } else {
+                    double fraction = (counts[s] & ((1 << TemplateJPPFTask.FRACTION_BITS) - 1)) / SCALE;
+                    quotient = levels[iteration] + fraction * (levels[iteration + 1] - levels[iteration]);
+                }
+                palette.add(quotient, (float) Math.pow(quotient, exponent), rgb);
+            }
+            argb[argbOffset + p] = toArgb(rgb[0] / superSamples, rgb[1] / superSamples, rgb[2] / superSamples);
+        }
+    }
+
+    /**
+     * Packs an opaque colour with components in [0, 1] the same way {@link java.awt.Color#Color(float, float, float)} does.
+     */
+    static int toArgb(float r, float g, float b) {
+        return 0xff000000
+                | ((int) (r * 255 + 0.5) << 16)
+                | ((int) (g * 255 + 0.5) << 8)
+                | (int) (b * 255 + 0.5);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Colouring[%s, %s, contrast=%s]", palette, mode, contrast);
+    }
+}
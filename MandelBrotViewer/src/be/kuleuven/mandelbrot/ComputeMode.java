@@ -0,0 +1,37 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * How a task computes the pixels of its tile. The modes that skip work do so where the result follows
+ * from the shape of the set, which holds for nearly all pixels but not all of them; their tiles are
+ * therefore cached apart from those of {@link #ESCAPE_TIME}, see {@link TileKey}.
+ */
+public enum ComputeMode {
+
+    /**
+     * Runs the escape time algorithm for every sample of every pixel.
+     */
+    ESCAPE_TIME,
+
+    /**
+     * Mariani-Silver subdivision: when the border of a rectangle lies entirely inside the set, so does
+     * its inside, which is then filled without being iterated. Rectangles with a mixed border are
+     * split in two until they are small enough to be computed pixel by pixel.
+     * The image is not exactly that of {@link #ESCAPE_TIME}: a sample that escapes while being enclosed by
+     * samples inside the set cannot be seen from the sampled border, and is filled as inside the set,
+     * without its count or smooth fraction; such pixels are a tiny fraction of boundary heavy views.
+     * This only applies to renders with a single sample per pixel, others fall back to {@link #ESCAPE_TIME}.
+     */
+    MARIANI_SILVER;
+
+    /**
+     * @return the mode with the given name, ignoring case, or {@link #ESCAPE_TIME} if there is none.
+     */
+    public static ComputeMode parse(String name) {
+        for (ComputeMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return ESCAPE_TIME;
+    }
+}
@@ -0,0 +1,119 @@
+package be.kuleuven.mandelbrot;
+
+import net.jpountz.lz4.LZ4Factory;
+
+import java.util.Arrays;
+
+/**
+ * Packs the iteration counts of a tile for the way back from the node, where they are most of the bytes.
+ * <p>
+ * Neighbouring samples mostly have the same count, or one close to it: the exterior far from the set
+ * changes by an iteration every few pixels, and the interior is one run of the budget. So every count
+ * is first written as its difference with the previous one, zigzag encoded so small negative differences
+ * stay small, in as few bytes as it needs, 7 bits per byte; a run of equal counts is a 0 followed by its
+ * length. What remains, repeated patterns of differences such as stripes along rows, is compressed
+ * with LZ4, which decompresses at memory speed.
+ * <p>
+ * Packed counts are a varint of the number of counts, a varint of the length of the differences, and
+ * the LZ4 block of the differences.
+ */
+public final class CountCodec {
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private CountCodec() {
+    }
+
+    /**
+     * @return the packed counts.
+     */
+    public static byte[] encode(int[] counts) {
+        // at most 5 bytes per count, runs only shorten it
+        byte[] deltas = new byte[5 * counts.length + 5];
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < counts.length; ) {
+            int delta = counts[i] - previous;
+            if (delta == 0) {
+                int run = 1;
+                while (i + run < counts.length && counts[i + run] == previous) {
+                    run++;
+                }
+                deltas[length++] = 0;
+                length = writeVarint(run - 1, deltas, length);
+                i += run;
+            } else {
+                length = writeVarint((delta << 1) ^ (delta >> 31), deltas, length);
+                previous = counts[i];
+                i++;
+            }
+        }
+
+        byte[] packed = new byte[10 + LZ4.fastCompressor().maxCompressedLength(length)];
+        int header = writeVarint(counts.length, packed, 0);
+        header = writeVarint(length, packed, header);
+        int compressed = LZ4.fastCompressor().compress(deltas, 0, length, packed, header);
+        return Arrays.copyOf(packed, header + compressed);
+    }
+
+    /**
+     * @return the counts packed by {@link #encode}.
+     */
+    public static int[] decode(byte[] packed) {
+        int[] position = {0};
+        int[] counts = new int[readVarint(packed, position)];
+        int length = readVarint(packed, position);
+        byte[] deltas = LZ4.fastDecompressor().decompress(packed, position[0], length);
+
+        // single byte differences are the common case, read without a call
+        int at = 0;
+        int previous = 0;
+        for (int i = 0; i < counts.length; ) {
+            int zigzag = deltas[at];
+            if (zigzag > 0) {
+                at++;
+            } else if (zigzag < 0) {
+                position[0] = at;
+                zigzag = readVarint(deltas, position);
+                at = position[0];
+            } else {
+                position[0] = at + 1;
+                int run = 1 + readVarint(deltas, position);
+                at = position[0];
+                Arrays.fill(counts, i, i + run, previous);
+                i += run;
+                continue;
+            }
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            counts[i++] = previous;
+        }
+        return counts;
+    }
+
+    /**
+     * Writes the value 7 bits at a time, lowest first, with the high bit set on all bytes but the last.
+     * @return the position after the value.
+     */
+    private static int writeVarint(int value, byte[] bytes, int position) {
+        while ((value & ~0x7f) != 0) {
+            bytes[position++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * @param position the position to read from, advanced past the value.
+     */
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package be.kuleuven.mandelbrot;
+
+import java.math.BigDecimal;
+
+/**
+ * Iterates samples of a deep zoom in double-double arithmetic: every number is the unevaluated
+ * sum hi + lo of two doubles, which gives about 106 bits, or 32 digits, of precision.
+ * <p>
+ * This covers zooms from where doubles run out, pixels of about {@value #PIXEL_SIZE_LIMIT}, down to
+ * pixels of about {@value PerturbationKernel#PIXEL_SIZE_LIMIT}, without the reference orbit a
+ * {@link PerturbationKernel} needs; rounding errors grow while iterating near the boundary, so
+ * the limit leaves about ten digits to spare. The arithmetic is written out on primitive locals, using the
+ * error free transformations of Dekker and Knuth, so no object is allocated while iterating.
+ * <p>
+ * Samples are given by their double offset from the exact centre of the view; resuming from an
+ * earlier z is not supported, samples always start from z = 0.
+ */
+public class DoubleDoubleKernel extends EscapeTimeKernel {
+
+    /**
+     * Views with pixels smaller than this are deep zooms, rendered with this kernel or a {@link PerturbationKernel}.
+     */
+    public static final double PIXEL_SIZE_LIMIT = 1e-13;
+
+    /**
+     * Number of iterations between two checks of the cancel flag, minus one.
+     */
+    private static final int CANCEL_MASK = 0x3ff;
+
+    /**
+     * 2^27 + 1, splits a double into two halves whose products are exact.
+     */
+    private static final double SPLIT = 134217729.0;
+
+    private final double centerXHi, centerXLo, centerYHi, centerYLo;
+
+    public DoubleDoubleKernel(BigDecimal centerX, BigDecimal centerY) {
+        centerXHi = centerX.doubleValue();
+        centerXLo = centerX.subtract(new BigDecimal(centerXHi)).doubleValue();
+        centerYHi = centerY.doubleValue();
+        centerYLo = centerY.subtract(new BigDecimal(centerYHi)).doubleValue();
+    }
+
+    /**
+     * @return whether a view of the given width in the complex plane is too deep for doubles at the given width in pixels.
+     */
+    public static boolean isNeeded(double viewWidth, int width) {
+        return viewWidth / width < PIXEL_SIZE_LIMIT;
+    }
+
+    /**
+     * Iterates a sample from z = 0.
+     *
+     * @param dcx the real part of the offset of the sample from the centre of the view.
+     * @param dcy the imaginary part of the offset of the sample from the centre of the view.
+     * @param x ignored, must be 0.
+     * @param y ignored, must be 0.
+     * @param iteration ignored, must be 0.
+     * @param maxIterations the iteration budget.
+     * @return the number of iterations after which |z| reached 2, {@code maxIterations} if it did not,
+     * or -1 if the kernel was cancelled.
+     */
+    @Override
+    public int iterate(double dcx, double dcy, double x, double y, int iteration, int maxIterations) {
+        // c = centre + offset
+        double s = centerXHi + dcx;
+        double b = s - centerXHi;
+        double e = (centerXHi - (s - b)) + (dcx - b) + centerXLo;
+        double cxh = s + e;
+        double cxl = e - (cxh - s);
+        s = centerYHi + dcy;
+        b = s - centerYHi;
+        e = (centerYHi - (s - b)) + (dcy - b) + centerYLo;
+        double cyh = s + e;
+        double cyl = e - (cyh - s);
+
+        double xh = 0, xl = 0, yh = 0, yl = 0;
+        double x2h = 0, x2l = 0, y2h = 0, y2l = 0;
+        int n = 0;
+        while (x2h + y2h < 4 && n < maxIterations) {
+            if ((n & CANCEL_MASK) == CANCEL_MASK && isCancelled()) {
+                return -1;
+            }
+            // xy = x * y
+            double t = SPLIT * xh;
+            double xhh = t - (t - xh);
+            double xhl = xh - xhh;
+            t = SPLIT * yh;
+            double yhh = t - (t - yh);
+            double yhl = yh - yhh;
+            double p = xh * yh;
+            e = ((xhh * yhh - p) + xhh * yhl + xhl * yhh) + xhl * yhl + (xh * yl + xl * yh);
+            double xyh = p + e;
+            double xyl = e - (xyh - p);
+
+            // x = x^2 - y^2 + cx
+            s = x2h - y2h;
+            b = s - x2h;
+            e = (x2h - (s - b)) + (-y2h - b) + (x2l - y2l);
+            double dh = s + e;
+            double dl = e - (dh - s);
+            s = dh + cxh;
+            b = s - dh;
+            e = (dh - (s - b)) + (cxh - b) + (dl + cxl);
+            xh = s + e;
+            xl = e - (xh - s);
+
+            // y = 2xy + cy, doubling is exact
+            s = 2 * xyh + cyh;
+            b = s - 2 * xyh;
+            e = (2 * xyh - (s - b)) + (cyh - b) + (2 * xyl + cyl);
+            yh = s + e;
+            yl = e - (yh - s);
+
+            // x^2 and y^2 of the new z, for the escape test and the next iteration
+            t = SPLIT * xh;
+            xhh = t - (t - xh);
+            xhl = xh - xhh;
+            p = xh * xh;
+            e = ((xhh * xhh - p) + 2 * xhh * xhl) + xhl * xhl + 2 * xh * xl;
+            x2h = p + e;
+            x2l = e - (x2h - p);
+            t = SPLIT * yh;
+            yhh = t - (t - yh);
+            yhl = yh - yhh;
+            p = yh * yh;
+            e = ((yhh * yhh - p) + 2 * yhh * yhl) + yhl * yhl + 2 * yh * yl;
+            y2h = p + e;
+            y2l = e - (y2h - p);
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,103 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Where the escape time iteration of each sample of a tile stopped, so that a render of the same
+ * samples with a larger iteration budget can continue from there instead of starting over at z = 0.
+ * <p>
+ * Samples are ordered row by row, with the samples of a pixel next to each other. Only the samples
+ * that used up the whole budget without escaping keep their last z, as they are the only ones
+ * that need further iterations. The iteration counts travel packed by the {@link CountCodec}.
+ */
+public class EscapeState implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * Weighs escape states for a {@link TileCache}.
+     */
+    public static final TileCache.Weigher<EscapeState> WEIGHER = new TileCache.Weigher<EscapeState>() {
+        @Override
+        public long sizeOf(EscapeState state) {
+            return 4L * state.iterations.length + 8L * state.unescapedZ.length;
+        }
+    };
+
+    private final int maxIterations;
+    // written by writeObject, packed
+    private transient int[] iterations;
+    private final double[] unescapedZ;
+
+    /**
+     * The number of bytes of the packed counts this escape state was read from, 0 if it was not.
+     */
+    private transient int packedBytes;
+
+    /**
+     * @param maxIterations the iteration budget the samples were iterated with.
+     * @param iterations the iteration count of each sample, {@code maxIterations} when it did not escape.
+     * @param unescapedZ the real and imaginary part of the last z of each sample that did not escape, in sample order.
+     */
+    public EscapeState(int maxIterations, int[] iterations, double[] unescapedZ) {
+        this.maxIterations = maxIterations;
+        this.iterations = iterations;
+        this.unescapedZ = unescapedZ;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(CountCodec.encode(iterations));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] packed = (byte[]) in.readObject();
+        iterations = CountCodec.decode(packed);
+        packedBytes = packed.length;
+    }
+
+    /**
+     * @return the size of this escape state as it travelled, with its counts packed, or its size in memory if it did
+     * not travel; without the serialization overhead.
+     */
+    public long getTransferBytes() {
+        return packedBytes > 0 ? packedBytes + 8L * unescapedZ.length : WEIGHER.sizeOf(this);
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public int getSampleCount() {
+        return iterations.length;
+    }
+
+    public int getIterations(int sample) {
+        return iterations[sample];
+    }
+
+    /**
+     * @return whether the sample escaped within the budget.
+     */
+    public boolean isEscaped(int sample) {
+        return iterations[sample] < maxIterations;
+    }
+
+    /**
+     * @param unescaped the rank of the sample among the samples that did not escape.
+     */
+    public double getZx(int unescaped) {
+        return unescapedZ[2 * unescaped];
+    }
+
+    /**
+     * @param unescaped the rank of the sample among the samples that did not escape.
+     */
+    public double getZy(int unescaped) {
+        return unescapedZ[2 * unescaped + 1];
+    }
+}
@@ -0,0 +1,169 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+
+/**
+ * The escape time iteration z = z^2 + c of a single sample, with early exits for samples inside the set.
+ * <p>
+ * Compared to the plain loop, this kernel:
+ * <ul>
+ * <li>answers samples in the main cardioid and the period-2 bulb without iterating, as they never escape;</li>
+ * <li>detects orbits that come back exactly to an earlier value with Brent's algorithm, as those cycle
+ * forever and never escape either;</li>
+ * <li>keeps x^2 and y^2 from the escape test for the next iteration instead of computing them twice.</li>
+ * </ul>
+ * The operations done on each iteration are exactly those of the plain loop, and a cycle is only reported
+ * when a value repeats bit for bit, so the kernel returns the same count as the plain loop for every sample.
+ * <p>
+ * A kernel keeps the last z of its last sample and is not thread safe; every task uses its own.
+ * <p>
+ * The kernel used by a node is picked by {@link #forThisNode()}, from the node configuration:
+ * <pre>
+ * # auto (the default) or lanes iterate several samples side by side, scalar one at a time
+ * mandelbrot.kernel = auto
+ * </pre>
+ */
+public class EscapeTimeKernel {
+
+    /**
+     * Number of iterations between two checks of the cancel flag.
+     */
+    private static final int CANCEL_CHECK_MASK = 0x3ff;
+
+    private volatile boolean cancelled;
+    private double zx, zy;
+
+    /**
+     * @return the kernel selected by the {@code mandelbrot.kernel} property of this JVM's JPPF configuration.
+     */
+    public static EscapeTimeKernel forThisNode() {
+        String kernel = JPPFConfiguration.getProperties().getString("mandelbrot.kernel", "auto").trim();
+        if (kernel.equalsIgnoreCase("scalar")) {
+            return new EscapeTimeKernel();
+        }
+        return new LaneKernel();
+    }
+
+    /**
+     * Iterates a sample from z = 0.
+     * @see #iterate(double, double, double, double, int, int)
+     */
+    public int iterate(double cx, double cy, int maxIterations) {
+        return iterate(cx, cy, 0, 0, 0, maxIterations);
+    }
+
+    /**
+     * Iterates a sample until it escapes or the budget is used up.
+     *
+     * @param cx the real part of the sample.
+     * @param cy the imaginary part of the sample.
+     * @param x the real part of z to start from.
+     * @param y the imaginary part of z to start from.
+     * @param iteration the number of iterations already done to reach that z.
+     * @param maxIterations the iteration budget.
+     * @return the number of iterations after which |z| reached 2, {@code maxIterations} if it did not,
+     * or -1 if the kernel was cancelled.
+     */
+    public int iterate(double cx, double cy, double x, double y, int iteration, int maxIterations) {
+        if (isInMainCardioidOrBulb(cx, cy)) {
+            // z is not needed to resume such a sample, it would be caught here again
+            zx = x;
+            zy = y;
+            return Math.max(iteration, maxIterations);
+        }
+
+        double x2 = x * x;
+        double y2 = y * y;
+        // Brent's cycle detection: compare with a saved z, saved again after 1, 2, 4, 8... iterations
+        double savedX = x, savedY = y;
+        int steps = 0, limit = 1;
+        while (x2 + y2 < 4 && iteration < maxIterations) {
+            if ((iteration & CANCEL_CHECK_MASK) == CANCEL_CHECK_MASK && cancelled) {
+                return -1;
+            }
+            y = 2 * x * y + cy;
+            x = x2 - y2 + cx;
+            x2 = x * x;
+            y2 = y * y;
+            iteration++;
+
+            if (x == savedX && y == savedY) {
+                iteration = maxIterations;
+                break;
+            }
+            if (++steps == limit) {
+                steps = 0;
+                limit <<= 1;
+                savedX = x;
+                savedY = y;
+            }
+        }
+        zx = x;
+        zy = y;
+        return iteration;
+    }
+
+    /**
+     * Iterates a batch of samples, each from its own starting z and iteration count, in place:
+     * on return each sample holds the count and z it stopped at, as with
+     * {@link #iterate(double, double, double, double, int, int)}.
+     *
+     * @param cx the real part of the samples.
+     * @param cy the imaginary part of the samples.
+     * @param zx the real part of z of the samples.
+     * @param zy the imaginary part of z of the samples.
+     * @param iterations the iteration count of the samples.
+     * @param n the number of samples in the arrays.
+     * @param maxIterations the iteration budget.
+     * @return {@code false} if the kernel was cancelled before all samples were done.
+     */
+    public boolean iterate(double[] cx, double[] cy, double[] zx, double[] zy, int[] iterations, int n, int maxIterations) {
+        for (int s = 0; s < n; s++) {
+            int iteration = iterate(cx[s], cy[s], zx[s], zy[s], iterations[s], maxIterations);
+            if (iteration < 0) {
+                return false;
+            }
+            iterations[s] = iteration;
+            zx[s] = this.zx;
+            zy[s] = this.zy;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether c lies in the main cardioid or in the disk of the period-2 bulb.
+     */
+    static boolean isInMainCardioidOrBulb(double cx, double cy) {
+        double y2 = cy * cy;
+        double q = (cx - 0.25) * (cx - 0.25) + y2;
+        if (q * (q + (cx - 0.25)) <= 0.25 * y2) {
+            return true;
+        }
+        return (cx + 1) * (cx + 1) + y2 <= 0.0625;
+    }
+
+    /**
+     * @return the real part of z when the last sample stopped iterating.
+     */
+    public double getZx() {
+        return zx;
+    }
+
+    /**
+     * @return the imaginary part of z when the last sample stopped iterating.
+     */
+    public double getZy() {
+        return zy;
+    }
+
+    /**
+     * Makes the current and all later calls to {@code iterate} return -1 as soon as they notice.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    protected boolean isCancelled() {
+        return cancelled;
+    }
+}
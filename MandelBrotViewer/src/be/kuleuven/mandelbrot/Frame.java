@@ -0,0 +1,133 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An image together with the iteration counts it was coloured from.
+ * <p>
+ * Tiles are written as counts, and coloured into the image as they arrive with the current
+ * {@link Colouring}. Changing the colouring recolours the whole image from the counts, in parallel
+ * on the common fork-join pool, which takes milliseconds and needs no job. Colourings that depend on
+ * the whole frame, see {@link Colouring#isFrameWide()}, colour arriving tiles as a ramp; the
+ * {@link ApplicationRunner} recolours the frame once all its tiles are in.
+ * <p>
+ * The image must be of type {@link BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_RGB}.
+ */
+public class Frame {
+
+    /**
+     * Rows coloured by one fork-join task.
+     */
+    private static final int ROWS_PER_TASK = 16;
+
+    private final BufferedImage image;
+    private RenderSpec spec;
+    private int[] counts;
+    private Colouring colouring = Colouring.DEFAULT;
+
+    public Frame(BufferedImage image) {
+        this.image = image;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Starts a new render: all counts become {@link TemplateJPPFTask#UNKNOWN}, the image keeps its pixels
+     * until their tiles arrive.
+     * @param spec the render, of the size of the image.
+     */
+    public synchronized void start(RenderSpec spec) {
+        int samples = spec.getWidth() * spec.getHeight() * spec.getSuperSamples();
+        if (counts == null || counts.length != samples) {
+            counts = new int[samples];
+        }
+        Arrays.fill(counts, TemplateJPPFTask.UNKNOWN);
+        this.spec = spec;
+    }
+
+    /**
+     * @return the render the counts belong to, {@code null} before the first.
+     */
+    public synchronized RenderSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the counts of every sample of the frame, pixel by pixel, row by row; not a copy.
+     */
+    public synchronized int[] getCounts() {
+        return counts;
+    }
+
+    public synchronized Colouring getColouring() {
+        return colouring;
+    }
+
+    /**
+     * Stores the counts of a tile and colours its pixels.
+     * @param tileCounts the counts returned by the task of the tile.
+     */
+    public synchronized void writeTile(Tile tile, int[] tileCounts) {
+        int superSamples = spec.getSuperSamples();
+        int rowSamples = tile.getWidth() * superSamples;
+        for (int row = 0; row < tile.getHeight(); row++) {
+            System.arraycopy(tileCounts, row * rowSamples, counts,
+                    ((tile.getY() + row) * spec.getWidth() + tile.getX()) * superSamples, rowSamples);
+        }
+        int[] pixels = new int[tile.getPixelCount()];
+        colouring.colour(tileCounts, 0, pixels, 0, pixels.length, superSamples, spec.getMaxIterations(), null);
+        ApplicationRunner.writeTile(image, tile, pixels);
+    }
+
+    /**
+     * Colours the whole image again from its counts; pixels whose counts are not known yet are left as they are.
+     * @param colouring the colouring of this and later tiles.
+     */
+    public synchronized void recolour(Colouring colouring) {
+        this.colouring = colouring;
+        if (spec == null) {
+            return;
+        }
+        float[] levels = colouring.levels(counts, spec.getMaxIterations());
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        ForkJoinPool.commonPool().invoke(new ColourRows(0, spec.getHeight(), data, levels));
+    }
+
+    /**
+     * Colours a band of rows, split in halves until it is small enough.
+     */
+    private class ColourRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final int[] data;
+        private final float[] levels;
+
+        ColourRows(int from, int to, int[] data, float[] levels) {
+            this.from = from;
+            this.to = to;
+            this.data = data;
+            this.levels = levels;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ColourRows(from, middle, data, levels), new ColourRows(middle, to, data, levels));
+                return;
+            }
+            int width = spec.getWidth();
+            for (int row = from; row < to; row++) {
+                colouring.colour(counts, row * width * spec.getSuperSamples(), data, row * image.getWidth(), width,
+                        spec.getSuperSamples(), spec.getMaxIterations(), levels);
+            }
+        }
+    }
+}
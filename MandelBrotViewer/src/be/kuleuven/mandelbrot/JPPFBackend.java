@@ -0,0 +1,61 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.client.JPPFClient;
+import org.jppf.client.JPPFJob;
+import org.jppf.client.event.JobEvent;
+import org.jppf.client.event.JobListenerAdapter;
+import org.jppf.node.protocol.DataProvider;
+import org.jppf.node.protocol.Task;
+
+import java.util.List;
+
+/**
+ * Sends the tasks of a render to the JPPF grid as one job.
+ * Results come back in batches, as the nodes return them.
+ */
+public class JPPFBackend implements RenderBackend {
+
+    /**
+     * Reads the JPPF configuration and connects to the driver(s) it lists.
+     */
+    private final JPPFClient jppfClient = new JPPFClient();
+
+    @Override
+    public Execution submit(String jobName, DataProvider dataProvider, List<TemplateJPPFTask> tasks, int priority,
+                            final Callback callback) throws Exception {
+        // create a JPPF job
+        final JPPFJob job = new JPPFJob();
+        // give this job a readable name that we can use to monitor and manage it.
+        job.setName(jobName);
+        job.setDataProvider(dataProvider);
+        // the driver dispatches the jobs with the highest priority first
+        job.getSLA().setPriority(priority);
+        for (TemplateJPPFTask mandelbrotTask : tasks) {
+            // add a task to the job.
+            Task<?> task = job.add(mandelbrotTask);
+            // provide a user-defined name for the task
+            task.setId(jobName + " - " + mandelbrotTask.getTile());
+        }
+        job.addJobListener(new JobListenerAdapter() {
+            @Override
+            public void jobReturned(JobEvent event) {
+                callback.tasksReturned(event.getJobTasks());
+            }
+        });
+        job.setBlocking(false);
+        jppfClient.submitJob(job);
+
+        return new Execution() {
+            @Override
+            public void cancel() {
+                // the driver tells the nodes to stop the tasks still running
+                job.cancel(true);
+            }
+
+            @Override
+            public void awaitResults() {
+                job.awaitResults();
+            }
+        };
+    }
+}
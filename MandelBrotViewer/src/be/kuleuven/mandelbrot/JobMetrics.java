@@ -0,0 +1,174 @@
+package be.kuleuven.mandelbrot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one render job cost: when its results came back, and for each task where it ran, how long
+ * it computed, how many iterations it executed and how many bytes of result it returned.
+ * <p>
+ * Tasks are recorded by the {@link ApplicationRunner} as the backend returns them, on the threads of
+ * the backend, while the viewer may read them to draw its heatmap, so all methods are synchronized.
+ */
+public class JobMetrics {
+
+    /**
+     * The cost of one returned task.
+     */
+    public static class TaskMetrics {
+        private final Tile tile;
+        private final String node;
+        private final long computeNanos;
+        private final long iterations;
+        private final long resultBytes;
+        private final long returnedNanos;
+        private final boolean failed;
+
+        TaskMetrics(Tile tile, String node, long computeNanos, long iterations, long resultBytes, long returnedNanos, boolean failed) {
+            this.tile = tile;
+            this.node = node;
+            this.computeNanos = computeNanos;
+            this.iterations = iterations;
+            this.resultBytes = resultBytes;
+            this.returnedNanos = returnedNanos;
+            this.failed = failed;
+        }
+
+        public Tile getTile() {
+            return tile;
+        }
+
+        /**
+         * @return the JVM that ran the task, see {@link TemplateJPPFTask#getNode()}.
+         */
+        public String getNode() {
+            return node;
+        }
+
+        /**
+         * @return the time the task spent computing on its node.
+         */
+        public long getComputeNanos() {
+            return computeNanos;
+        }
+
+        public long getIterations() {
+            return iterations;
+        }
+
+        /**
+         * @return the size of the iteration counts and escape state returned, as they travelled, without the
+         * serialization overhead.
+         */
+        public long getResultBytes() {
+            return resultBytes;
+        }
+
+        /**
+         * @return the time from the submission of the job until this task came back.
+         */
+        public long getReturnedNanos() {
+            return returnedNanos;
+        }
+
+        /**
+         * @return whether the task came back with a throwable rather than a result.
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+    }
+
+    private final String jobName;
+    private final long submitMillis;
+    private final long submitNanos;
+    private final List<TaskMetrics> tasks = new ArrayList<>();
+    private long firstResultNanos = -1, lastResultNanos = -1;
+
+    /**
+     * Starts measuring a job, just before it is submitted.
+     */
+    public JobMetrics(String jobName) {
+        this.jobName = jobName;
+        submitMillis = System.currentTimeMillis();
+        submitNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a task returned by the backend.
+     */
+    public synchronized void taskReturned(TemplateJPPFTask task) {
+        long returned = System.nanoTime() - submitNanos;
+        if (firstResultNanos < 0) {
+            firstResultNanos = returned;
+        }
+        lastResultNanos = returned;
+        long bytes = task.getCountBytes();
+        if (task.getEscapeState() != null) {
+            bytes += task.getEscapeState().getTransferBytes();
+        }
+        tasks.add(new TaskMetrics(task.getTile(), task.getNode(), task.getComputeNanos(), task.getIterationCount(),
+                bytes, returned, task.getThrowable() != null));
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    /**
+     * @return when the job was submitted, in milliseconds since the epoch.
+     */
+    public long getSubmitMillis() {
+        return submitMillis;
+    }
+
+    /**
+     * @return the time from submission until the first task came back, -1 if none did.
+     */
+    public synchronized long getFirstResultNanos() {
+        return firstResultNanos;
+    }
+
+    /**
+     * @return the time from submission until the last task came back so far, -1 if none did.
+     */
+    public synchronized long getLastResultNanos() {
+        return lastResultNanos;
+    }
+
+    /**
+     * @return the tasks returned so far, in the order they came back.
+     */
+    public synchronized List<TaskMetrics> getTasks() {
+        return new ArrayList<>(tasks);
+    }
+
+    public synchronized long getIterations() {
+        long iterations = 0;
+        for (TaskMetrics task : tasks) {
+            iterations += task.iterations;
+        }
+        return iterations;
+    }
+
+    public synchronized long getResultBytes() {
+        long bytes = 0;
+        for (TaskMetrics task : tasks) {
+            bytes += task.resultBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the task that computed longest, the straggler of the job, or {@code null} if none returned.
+     */
+    public synchronized TaskMetrics getSlowestTask() {
+        TaskMetrics slowest = null;
+        for (TaskMetrics task : tasks) {
+            if (slowest == null || task.computeNanos > slowest.computeNanos) {
+                slowest = task;
+            }
+        }
+        return slowest;
+    }
+}
@@ -0,0 +1,292 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.node.protocol.DataProvider;
+import org.jppf.node.protocol.MemoryMapDataProvider;
+
+import java.awt.geom.Rectangle2D;
+import java.math.BigDecimal;
+
+/**
+ * Checks the escape time kernels pixel for pixel against the plain loop the tasks used before them:
+ * <pre>
+ * while (x * x + y * y &lt; 4 &amp;&amp; iteration &lt; maxIterations) { ... }
+ * </pre>
+ * The double kernels must give exactly the same count for every sample, on whole views, when resuming
+ * from an earlier z, and when the lanes of a {@link LaneKernel} get out of step because their samples
+ * escape at different points of a block. Such a batch must also find the cycles of its samples inside
+ * the set, at a budget the plain loop could not finish.
+ * <p>
+ * The deep zoom kernels add the offsets of the samples to the centre in more precision than doubles,
+ * so samples right at the boundary may escape an iteration earlier or later; they are checked on a view
+ * doubles still resolve, and only a small share of their counts may differ.
+ * <p>
+ * Last, a smooth tile computed by {@link ComputeMode#MARIANI_SILVER} subdivision must have the same counts,
+ * fractions included, as the escape time tile, but for the few pixels subdivision cannot see.
+ * <pre>
+ * java be.kuleuven.mandelbrot.KernelCheck
+ * </pre>
+ * Prints one line per check and exits with status 1 if any failed.
+ */
+public class KernelCheck {
+
+    private static final String[] VIEW_NAMES = {"full", "seahorse", "elephant"};
+    private static final Rectangle2D.Double[] VIEWS = {
+            new Rectangle2D.Double(-2.5, -1, 3.5, 2),
+            new Rectangle2D.Double(-0.7437438870, 0.1317509042, 2e-4, 1.5e-4),
+            new Rectangle2D.Double(0.26, -0.0075, 0.02, 0.015)
+    };
+    private static final BigDecimal DEEP_X = new BigDecimal("-0.743643887037158704752191506114774");
+    private static final BigDecimal DEEP_Y = new BigDecimal("0.131825904205311970493132056385139");
+
+    /**
+     * Share of the counts of the deep zoom kernels that may differ from the plain loop.
+     */
+    private static final double DEEP_TOLERANCE = 0.01;
+
+    /**
+     * Share of the counts of a subdivided tile that may differ from the escape time tile.
+     */
+    private static final double SUBDIVISION_TOLERANCE = 0.001;
+
+    /**
+     * Time the batches get to find the cycles of their samples.
+     */
+    private static final long CYCLE_TIMEOUT_MILLIS = 5000;
+
+    private int failures;
+
+    public static void main(String[] args) throws Exception {
+        KernelCheck check = new KernelCheck();
+        check.views();
+        check.resume();
+        check.misalignedLanes();
+        check.deepKernels();
+        check.smoothSubdivision();
+        System.out.println(check.failures == 0 ? "all kernels agree" : check.failures + " checks failed");
+        if (check.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The plain loop, from the given z and count.
+     */
+    static int baseline(double x0, double y0, double x, double y, int iteration, int maxIterations) {
+        while (x * x + y * y < 4 && iteration < maxIterations) {
+            double xtemp = x * x - y * y + x0;
+            y = 2 * x * y + y0;
+            x = xtemp;
+            iteration++;
+        }
+        return iteration;
+    }
+
+    /**
+     * Whole views, with a number of samples that leaves lanes idle at the end.
+     */
+    void views() {
+        int width = 199, height = 150;
+        for (int v = 0; v < VIEWS.length; v++) {
+            for (int maxIterations : new int[] {1000, 10000}) {
+                RenderSpec spec = new RenderSpec(VIEWS[v], width, height, maxIterations, 1, 0);
+                double[][] c = samples(spec, false);
+                int[] expected = baseline(c[0], c[1], maxIterations);
+                for (EscapeTimeKernel kernel : new EscapeTimeKernel[] {new EscapeTimeKernel(), new LaneKernel()}) {
+                    int[] counts = new int[expected.length];
+                    kernel.iterate(c[0], c[1], new double[counts.length], new double[counts.length], counts,
+                            counts.length, maxIterations);
+                    report(kernel, String.format("view=%s;maxIterations=%d", VIEW_NAMES[v], maxIterations),
+                            differences(expected, counts), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples resumed from the z the plain loop had after half the budget, as refined tiles are.
+     */
+    void resume() {
+        RenderSpec spec = new RenderSpec(VIEWS[1], 199, 150, 4000, 1, 0);
+        double[][] c = samples(spec, false);
+        int n = c[0].length;
+        int[] expected = baseline(c[0], c[1], spec.getMaxIterations());
+        for (EscapeTimeKernel kernel : new EscapeTimeKernel[] {new EscapeTimeKernel(), new LaneKernel()}) {
+            double[] zx = new double[n];
+            double[] zy = new double[n];
+            int[] counts = new int[n];
+            for (int s = 0; s < n; s++) {
+                double x = 0, y = 0;
+                int iteration = 0;
+                while (x * x + y * y < 4 && iteration < spec.getMaxIterations() / 2) {
+                    double xtemp = x * x - y * y + c[0][s];
+                    y = 2 * x * y + c[1][s];
+                    x = xtemp;
+                    iteration++;
+                }
+                zx[s] = x;
+                zy[s] = y;
+                counts[s] = iteration;
+            }
+            kernel.iterate(c[0], c[1], zx, zy, counts, n, spec.getMaxIterations());
+            report(kernel, "resume=" + spec.getMaxIterations() / 2, differences(expected, counts), 0);
+        }
+    }
+
+    /**
+     * Batches of samples of the period-3 bulb with one sample among them that escapes after the warm-up,
+     * at a different point of a block in each batch, so the lanes are out of step by the time the others
+     * must be found to cycle.
+     */
+    void misalignedLanes() throws Exception {
+        final int batches = 8, n = 8;
+        final double[][] cx = new double[batches][n];
+        final double[][] cy = new double[batches][n];
+        for (int b = 0; b < batches; b++) {
+            for (int s = 0; s < n; s++) {
+                cx[b][s] = -0.115 + 2e-3 * s;
+                cy[b][s] = 0.74;
+            }
+            cx[b][1] = -0.75;
+            cy[b][1] = 0.02 + 1e-3 * b;
+        }
+
+        int maxIterations = 1000000;
+        int[][] expected = new int[batches][];
+        int differ = 0;
+        for (int b = 0; b < batches; b++) {
+            expected[b] = baseline(cx[b], cy[b], maxIterations);
+            int[] counts = new int[n];
+            new LaneKernel().iterate(cx[b], cy[b], new double[n], new double[n], counts, n, maxIterations);
+            differ += differences(expected[b], counts);
+        }
+        report(new LaneKernel(), "misaligned;maxIterations=" + maxIterations, differ, 0);
+
+        // the plain loop would take hours at this budget, the escaping samples keep their counts
+        final LaneKernel kernel = new LaneKernel();
+        final int[][] counts = new int[batches][n];
+        Thread worker = new Thread("KernelCheck") {
+            @Override
+            public void run() {
+                for (int b = 0; b < batches; b++) {
+                    kernel.iterate(cx[b], cy[b], new double[n], new double[n], counts[b], n, Integer.MAX_VALUE);
+                }
+            }
+        };
+        // a kernel that does not notice the cancel either must not keep the check from exiting
+        worker.setDaemon(true);
+        worker.start();
+        worker.join(CYCLE_TIMEOUT_MILLIS);
+        boolean finished = !worker.isAlive();
+        kernel.cancel();
+        differ = 0;
+        for (int b = 0; b < batches; b++) {
+            for (int s = 0; s < n; s++) {
+                int count = expected[b][s] < maxIterations ? expected[b][s] : Integer.MAX_VALUE;
+                if (!finished || counts[b][s] != count) {
+                    differ++;
+                }
+            }
+        }
+        report(kernel, "misaligned;maxIterations=" + Integer.MAX_VALUE, differ, 0);
+    }
+
+    /**
+     * The deep zoom kernels on a view around their centre that doubles still resolve.
+     */
+    void deepKernels() {
+        int width = 199, height = 150;
+        double viewWidth = 2e-4, viewHeight = viewWidth * height / width;
+        for (int maxIterations : new int[] {1000, 5000}) {
+            RenderSpec spec = new RenderSpec(new Rectangle2D.Double(DEEP_X.doubleValue() - viewWidth / 2,
+                    DEEP_Y.doubleValue() - viewHeight / 2, viewWidth, viewHeight), width, height, maxIterations, 1, 0)
+                    .withCenter(DEEP_X, DEEP_Y);
+            double[][] c = samples(spec, false);
+            double[][] offsets = samples(spec, true);
+            int[] expected = baseline(c[0], c[1], maxIterations);
+            for (EscapeTimeKernel kernel : new EscapeTimeKernel[] {
+                    new DoubleDoubleKernel(DEEP_X, DEEP_Y), new PerturbationKernel(ReferenceOrbit.compute(spec))}) {
+                int[] counts = new int[expected.length];
+                kernel.iterate(offsets[0], offsets[1], new double[counts.length], new double[counts.length], counts,
+                        counts.length, maxIterations);
+                report(kernel, String.format("view=deep;maxIterations=%d", maxIterations),
+                        differences(expected, counts), (int) (DEEP_TOLERANCE * counts.length));
+            }
+        }
+    }
+
+    /**
+     * A smooth tile by subdivision and by escape time, as the tasks compute them.
+     */
+    void smoothSubdivision() {
+        RenderSpec spec = new RenderSpec(new Rectangle2D.Double(-0.2, 0.6, 0.3, 0.3), 256, 192, 3000, 1, 0)
+                .withSmooth(true).withEscapeState(false);
+        Tile tile = new Tile(0, 0, spec.getWidth(), spec.getHeight());
+        int[] expected = execute(spec, tile);
+        int[] counts = execute(spec.withComputeMode(ComputeMode.MARIANI_SILVER), tile);
+        report("MarianiSilver", "smooth;maxIterations=" + spec.getMaxIterations(), differences(expected, counts),
+                (int) (SUBDIVISION_TOLERANCE * counts.length));
+    }
+
+    /**
+     * Runs the task of a tile here, as a node would.
+     * @return the counts of the tile.
+     */
+    private static int[] execute(RenderSpec spec, Tile tile) {
+        DataProvider dataProvider = new MemoryMapDataProvider();
+        dataProvider.setParameter(RenderSpec.KEY, spec);
+        TemplateJPPFTask task = new TemplateJPPFTask(tile);
+        task.setDataProvider(dataProvider);
+        task.run();
+        return task.getCounts();
+    }
+
+    /**
+     * @param offsets whether to place the samples as offsets from the centre, as the deep kernels take them.
+     * @return the real and imaginary parts of the pixel centres of the spec.
+     */
+    private static double[][] samples(RenderSpec spec, boolean offsets) {
+        int n = spec.getWidth() * spec.getHeight();
+        double[] cx = new double[n];
+        double[] cy = new double[n];
+        double left = offsets ? -spec.getViewWidth() / 2 : spec.getMinX();
+        double top = offsets ? spec.getViewHeight() / 2 : spec.getMaxY();
+        for (int h = 0, i = 0; h < spec.getHeight(); h++) {
+            for (int w = 0; w < spec.getWidth(); w++, i++) {
+                cx[i] = left + (w + .5) / spec.getWidth() * spec.getViewWidth();
+                cy[i] = top - (h + .5) / spec.getHeight() * spec.getViewHeight();
+            }
+        }
+        return new double[][] {cx, cy};
+    }
+
+    private static int[] baseline(double[] cx, double[] cy, int maxIterations) {
+        int[] counts = new int[cx.length];
+        for (int s = 0; s < counts.length; s++) {
+            counts[s] = baseline(cx[s], cy[s], 0, 0, 0, maxIterations);
+        }
+        return counts;
+    }
+
+    private static int differences(int[] expected, int[] counts) {
+        int differ = 0;
+        for (int s = 0; s < expected.length; s++) {
+            if (counts[s] != expected[s]) {
+                differ++;
+            }
+        }
+        return differ;
+    }
+
+    private void report(EscapeTimeKernel kernel, String params, int differ, int allowed) {
+        report(kernel.getClass().getSimpleName(), params, differ, allowed);
+    }
+
+    private void report(String name, String params, int differ, int allowed) {
+        boolean ok = differ <= allowed;
+        if (!ok) {
+            failures++;
+        }
+        System.out.printf("%-4s %-20s %-40s %6d counts differ%n", ok ? "ok" : "FAIL",
+                name, params, differ);
+    }
+}
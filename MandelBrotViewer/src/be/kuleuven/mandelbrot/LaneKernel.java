@@ -0,0 +1,333 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * An {@link EscapeTimeKernel} that iterates {@value #LANES} samples side by side.
+ * <p>
+ * The orbits of different samples do not depend on each other, so interleaving their iterations
+ * lets the CPU overlap the multiplications of one lane with the latency of the others, which a
+ * single orbit cannot do as every iteration needs the result of the previous one. The lanes are
+ * unrolled by hand into locals and advance in lock step, {@value #BLOCK} iterations at a time
+ * without looking at them in between; when a lane escaped within such a block, the block is
+ * undone and redone one iteration at a time, so the lane stops at the right count. A lane that
+ * escapes, exhausts its budget or cycles is refilled with the next sample, so the lanes stay busy
+ * until the last samples. Samples first iterate {@value #WARM_UP} times on their own, as most of
+ * the samples that escape quickly would cost more to move in and out of a lane.
+ * <p>
+ * Each lane does exactly the same operations as the scalar kernel and a cycle is only reported on
+ * an exact repeat, so the counts are identical. Cycles are looked for against a z saved every
+ * {@value #SAVE_INTERVAL} iterations for all lanes at once, rather than on each lane's own schedule.
+ * The saves are counted down by the iterations actually done, whether in blocks or one at a time, so
+ * they never depend on where in a block a lane escaped.
+ * <p>
+ * This is portable Java rather than explicit SIMD: the project targets Java 8, where the vector API
+ * is not available.
+ */
+public class LaneKernel extends EscapeTimeKernel {
+
+    static final int LANES = 4;
+
+    /**
+     * Iterations done by the fast path between two looks at the lanes.
+     */
+    private static final int BLOCK = 4;
+
+    /**
+     * Iterations a sample does on its own before it gets a lane.
+     */
+    private static final int WARM_UP = 64;
+
+    /**
+     * Iterations between two saves of z for cycle detection.
+     */
+    private static final int SAVE_INTERVAL = 256;
+
+    /**
+     * Saves between two checks of the cancel flag.
+     */
+    private static final int CANCEL_SAVES = 4;
+
+    @Override
+    public boolean iterate(double[] cx, double[] cy, double[] zx, double[] zy, int[] iterations, int n, int maxIterations) {
+        // the state of every lane lives in locals, so the JIT can keep it in registers
+        int s0 = -1, it0 = 0;
+        double cx0 = 0, cy0 = 0, x0 = 0, y0 = 0, x20 = 0, y20 = 0, sx0 = 0, sy0 = 0;
+        int s1 = -1, it1 = 0;
+        double cx1 = 0, cy1 = 0, x1 = 0, y1 = 0, x21 = 0, y21 = 0, sx1 = 0, sy1 = 0;
+        int s2 = -1, it2 = 0;
+        double cx2 = 0, cy2 = 0, x2 = 0, y2 = 0, x22 = 0, y22 = 0, sx2 = 0, sy2 = 0;
+        int s3 = -1, it3 = 0;
+        double cx3 = 0, cy3 = 0, x3 = 0, y3 = 0, x23 = 0, y23 = 0, sx3 = 0, sy3 = 0;
+
+        int next = 0;
+        // iterations left until the next save, and saves left until the next look at the cancel flag
+        int untilSave = SAVE_INTERVAL;
+        int savesUntilCancel = CANCEL_SAVES;
+        while (true) {
+            // (re)fill the idle lanes, stop once they are all idle and no sample is left
+            if (s0 < 0) {
+                next = nextSample(cx, cy, zx, zy, iterations, n, maxIterations, next);
+                if (next < n) {
+                    s0 = next++;
+                    cx0 = cx[s0];
+                    cy0 = cy[s0];
+                    x0 = sx0 = zx[s0];
+                    y0 = sy0 = zy[s0];
+                    x20 = x0 * x0;
+                    y20 = y0 * y0;
+                    it0 = iterations[s0];
+                } else {
+                    // park the idle lane on a fixed point, so it never needs attention
+                    cx0 = cy0 = x0 = y0 = x20 = y20 = 0;
+                    sx0 = sy0 = Double.NaN;
+                    it0 = Integer.MIN_VALUE;
+                }
+            }
+            if (s1 < 0) {
+                next = nextSample(cx, cy, zx, zy, iterations, n, maxIterations, next);
+                if (next < n) {
+                    s1 = next++;
+                    cx1 = cx[s1];
+                    cy1 = cy[s1];
+                    x1 = sx1 = zx[s1];
+                    y1 = sy1 = zy[s1];
+                    x21 = x1 * x1;
+                    y21 = y1 * y1;
+                    it1 = iterations[s1];
+                } else {
+                    // park the idle lane on a fixed point, so it never needs attention
+                    cx1 = cy1 = x1 = y1 = x21 = y21 = 0;
+                    sx1 = sy1 = Double.NaN;
+                    it1 = Integer.MIN_VALUE;
+                }
+            }
+            if (s2 < 0) {
+                next = nextSample(cx, cy, zx, zy, iterations, n, maxIterations, next);
+                if (next < n) {
+                    s2 = next++;
+                    cx2 = cx[s2];
+                    cy2 = cy[s2];
+                    x2 = sx2 = zx[s2];
+                    y2 = sy2 = zy[s2];
+                    x22 = x2 * x2;
+                    y22 = y2 * y2;
+                    it2 = iterations[s2];
+                } else {
+                    // park the idle lane on a fixed point, so it never needs attention
+                    cx2 = cy2 = x2 = y2 = x22 = y22 = 0;
+                    sx2 = sy2 = Double.NaN;
+                    it2 = Integer.MIN_VALUE;
+                }
+            }
+            if (s3 < 0) {
+                next = nextSample(cx, cy, zx, zy, iterations, n, maxIterations, next);
+                if (next < n) {
+                    s3 = next++;
+                    cx3 = cx[s3];
+                    cy3 = cy[s3];
+                    x3 = sx3 = zx[s3];
+                    y3 = sy3 = zy[s3];
+                    x23 = x3 * x3;
+                    y23 = y3 * y3;
+                    it3 = iterations[s3];
+                } else {
+                    // park the idle lane on a fixed point, so it never needs attention
+                    cx3 = cy3 = x3 = y3 = x23 = y23 = 0;
+                    sx3 = sy3 = Double.NaN;
+                    it3 = Integer.MIN_VALUE;
+                }
+            }
+            if (s0 < 0 && s1 < 0 && s2 < 0 && s3 < 0) {
+                return true;
+            }
+
+            boolean attention = false;
+            // fast path: blocks of BLOCK iterations without looking at the lanes in between; once a lane
+            // escapes within a block, the block is undone and redone one iteration at a time below
+            while (untilSave >= BLOCK && it0 <= maxIterations - BLOCK && it1 <= maxIterations - BLOCK
+                    && it2 <= maxIterations - BLOCK && it3 <= maxIterations - BLOCK) {
+                double bx0 = x0, by0 = y0, bx20 = x20, by20 = y20;
+                double bx1 = x1, by1 = y1, bx21 = x21, by21 = y21;
+                double bx2 = x2, by2 = y2, bx22 = x22, by22 = y22;
+                double bx3 = x3, by3 = y3, bx23 = x23, by23 = y23;
+                for (int i = 0; i < BLOCK; i++) {
+                    y0 = 2 * x0 * y0 + cy0;
+                    x0 = x20 - y20 + cx0;
+                    x20 = x0 * x0;
+                    y20 = y0 * y0;
+                    y1 = 2 * x1 * y1 + cy1;
+                    x1 = x21 - y21 + cx1;
+                    x21 = x1 * x1;
+                    y21 = y1 * y1;
+                    y2 = 2 * x2 * y2 + cy2;
+                    x2 = x22 - y22 + cx2;
+                    x22 = x2 * x2;
+                    y22 = y2 * y2;
+                    y3 = 2 * x3 * y3 + cy3;
+                    x3 = x23 - y23 + cx3;
+                    x23 = x3 * x3;
+                    y23 = y3 * y3;
+                }
+                if (!(x20 + y20 < 4)
+                        || !(x21 + y21 < 4)
+                        || !(x22 + y22 < 4)
+                        || !(x23 + y23 < 4)) {
+                    x0 = bx0;
+                    y0 = by0;
+                    x20 = bx20;
+                    y20 = by20;
+                    x1 = bx1;
+                    y1 = by1;
+                    x21 = bx21;
+                    y21 = by21;
+                    x2 = bx2;
+                    y2 = by2;
+                    x22 = bx22;
+                    y22 = by22;
+                    x3 = bx3;
+                    y3 = by3;
+                    x23 = bx23;
+                    y23 = by23;
+                    break;
+                }
+                it0 += BLOCK;
+                it1 += BLOCK;
+                it2 += BLOCK;
+                it3 += BLOCK;
+                untilSave -= BLOCK;
+                attention = it0 >= maxIterations | (x0 == sx0 & y0 == sy0)
+                        | it1 >= maxIterations | (x1 == sx1 & y1 == sy1)
+                        | it2 >= maxIterations | (x2 == sx2 & y2 == sy2)
+                        | it3 >= maxIterations | (x3 == sx3 & y3 == sy3)
+                        | untilSave == 0;
+                if (attention) {
+                    break;
+                }
+            }
+
+            // slow path: one iteration at a time until a lane needs attention
+            while (!attention) {
+                y0 = 2 * x0 * y0 + cy0;
+                x0 = x20 - y20 + cx0;
+                x20 = x0 * x0;
+                y20 = y0 * y0;
+                y1 = 2 * x1 * y1 + cy1;
+                x1 = x21 - y21 + cx1;
+                x21 = x1 * x1;
+                y21 = y1 * y1;
+                y2 = 2 * x2 * y2 + cy2;
+                x2 = x22 - y22 + cx2;
+                x22 = x2 * x2;
+                y22 = y2 * y2;
+                y3 = 2 * x3 * y3 + cy3;
+                x3 = x23 - y23 + cx3;
+                x23 = x3 * x3;
+                y23 = y3 * y3;
+                it0++;
+                it1++;
+                it2++;
+                it3++;
+                untilSave--;
+                attention = !(x20 + y20 < 4) | it0 >= maxIterations | (x0 == sx0 & y0 == sy0)
+                        | !(x21 + y21 < 4) | it1 >= maxIterations | (x1 == sx1 & y1 == sy1)
+                        | !(x22 + y22 < 4) | it2 >= maxIterations | (x2 == sx2 & y2 == sy2)
+                        | !(x23 + y23 < 4) | it3 >= maxIterations | (x3 == sx3 & y3 == sy3)
+                        | untilSave == 0;
+            }
+
+            if (untilSave == 0 && savesUntilCancel == 1 && isCancelled()) {
+                return false;
+            }
+            if (s0 >= 0) {
+                boolean cycle = x0 == sx0 && y0 == sy0;
+                if (cycle || !(x20 + y20 < 4) || it0 >= maxIterations) {
+                    iterations[s0] = cycle ? maxIterations : it0;
+                    zx[s0] = x0;
+                    zy[s0] = y0;
+                    s0 = -1;
+                }
+            }
+            if (s1 >= 0) {
+                boolean cycle = x1 == sx1 && y1 == sy1;
+                if (cycle || !(x21 + y21 < 4) || it1 >= maxIterations) {
+                    iterations[s1] = cycle ? maxIterations : it1;
+                    zx[s1] = x1;
+                    zy[s1] = y1;
+                    s1 = -1;
+                }
+            }
+            if (s2 >= 0) {
+                boolean cycle = x2 == sx2 && y2 == sy2;
+                if (cycle || !(x22 + y22 < 4) || it2 >= maxIterations) {
+                    iterations[s2] = cycle ? maxIterations : it2;
+                    zx[s2] = x2;
+                    zy[s2] = y2;
+                    s2 = -1;
+                }
+            }
+            if (s3 >= 0) {
+                boolean cycle = x3 == sx3 && y3 == sy3;
+                if (cycle || !(x23 + y23 < 4) || it3 >= maxIterations) {
+                    iterations[s3] = cycle ? maxIterations : it3;
+                    zx[s3] = x3;
+                    zy[s3] = y3;
+                    s3 = -1;
+                }
+            }
+            if (untilSave == 0) {
+                untilSave = SAVE_INTERVAL;
+                savesUntilCancel = savesUntilCancel == 1 ? CANCEL_SAVES : savesUntilCancel - 1;
+                // Brent's cycle detection, with the same schedule for all lanes
+                if (s0 >= 0) {
+                    sx0 = x0;
+                    sy0 = y0;
+                }
+                if (s1 >= 0) {
+                    sx1 = x1;
+                    sy1 = y1;
+                }
+                if (s2 >= 0) {
+                    sx2 = x2;
+                    sy2 = y2;
+                }
+                if (s3 >= 0) {
+                    sx3 = x3;
+                    sy3 = y3;
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves, in place, the samples from {@code from} on that need no lane: samples in the main cardioid
+     * or bulb, and samples that escape within {@value #WARM_UP} iterations, which are cheaper to finish
+     * here than to feed through a lane. The sample returned has done those iterations.
+     * @return the first sample that needs a lane, or {@code n} if there is none left.
+     */
+    private static int nextSample(double[] cx, double[] cy, double[] zx, double[] zy, int[] iterations, int n,
+                                  int maxIterations, int from) {
+        for (int s = from; s < n; s++) {
+            if (isInMainCardioidOrBulb(cx[s], cy[s])) {
+                iterations[s] = Math.max(iterations[s], maxIterations);
+                continue;
+            }
+            double x = zx[s], y = zy[s];
+            double x2 = x * x, y2 = y * y;
+            int iteration = iterations[s];
+            int limit = Math.min(maxIterations, iteration + WARM_UP);
+            while (x2 + y2 < 4 && iteration < limit) {
+                y = 2 * x * y + cy[s];
+                x = x2 - y2 + cx[s];
+                x2 = x * x;
+                y2 = y * y;
+                iteration++;
+            }
+            zx[s] = x;
+            zy[s] = y;
+            iterations[s] = iteration;
+            if (x2 + y2 < 4 && iteration < maxIterations) {
+                return s;
+            }
+        }
+        return n;
+    }
+}
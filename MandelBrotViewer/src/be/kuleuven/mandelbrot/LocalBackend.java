@@ -0,0 +1,81 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.node.protocol.DataProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the tasks of a render on the cores of this JVM, without a driver or nodes.
+ * <p>
+ * The tasks are submitted to a work-stealing {@link ForkJoinPool}, so idle threads take over the
+ * tiles still queued while the expensive ones run. The tasks are the same as on the grid, and get
+ * the same data provider, so the pixels are the same as well; they are just not serialized.
+ * Tasks run in the order they were submitted, whatever their priority; low priority work has to be
+ * cancelled to make way for a render.
+ */
+public class LocalBackend implements RenderBackend {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param threads the number of worker threads, 0 for one per core.
+     */
+    public LocalBackend(int threads) {
+        pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public Execution submit(String jobName, DataProvider dataProvider, final List<TemplateJPPFTask> tasks, int priority,
+                            final Callback callback) {
+        final List<ForkJoinTask<?>> running = new ArrayList<>(tasks.size());
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        for (final TemplateJPPFTask task : tasks) {
+            task.setDataProvider(dataProvider);
+            task.setId(jobName + " - " + task.getTile());
+            running.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        // as a node would
+                        task.setThrowable(t);
+                    }
+                    if (!cancelled.get()) {
+                        callback.tasksReturned(Collections.singletonList(task));
+                    }
+                }
+            }));
+        }
+
+        return new Execution() {
+            @Override
+            public void cancel() {
+                cancelled.set(true);
+                for (ForkJoinTask<?> future : running) {
+                    future.cancel(false);
+                }
+                for (TemplateJPPFTask task : tasks) {
+                    task.onCancel();
+                }
+            }
+
+            @Override
+            public void awaitResults() {
+                for (ForkJoinTask<?> future : running) {
+                    try {
+                        future.join();
+                    } catch (CancellationException e) {
+                        // never started
+                    }
+                }
+            }
+        };
+    }
+}
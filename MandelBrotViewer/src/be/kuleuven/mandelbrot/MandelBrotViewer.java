@@ -1,6 +1,10 @@
 package be.kuleuven.mandelbrot;
 
+import org.jppf.utils.JPPFConfiguration;
+
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
@@ -9,8 +13,12 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.Random;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
 
 public class MandelBrotViewer extends JFrame {
 
@@ -24,20 +32,42 @@ public class MandelBrotViewer extends JFrame {
     private JProgressBar progressBar;
     private JTextField superSamplesInput;
     private JTextField maxIterationsInput;
+    private JTextField tileSizeInput;
+    private JComboBox<ComputeMode> computeModeInput;
+    private JCheckBox heatmapInput;
+    private JCheckBox smoothInput;
+    private JComboBox<Colouring.Palette> paletteInput;
+    private JComboBox<Colouring.Mode> colouringModeInput;
+    private JSlider contrastInput;
 
     public BufferedImage image;
+    // the iteration counts behind the image, so that it can be recoloured without rendering it again
+    private Frame frame;
     private Stack<Rectangle2D.Double> viewPortStack;
     public Rectangle2D.Double viewPort;
     private Rectangle2D.Double origViewPort;
+    // the exact centre of the view; past a zoom of about 1e-13 the viewport can no longer represent it
+    private BigDecimal centerX, centerY;
+    private Stack<BigDecimal[]> centerStack;
 
     // mouse related stuff
     private boolean mouseDown;
     private Point mouseDownPoint , mouseDragPoint;
 
     // algorithm related stuff
-    public static int superSamples = 1;
-    public static int maxIterations = 1000;
+    // these only live in the viewer, nodes get them through the RenderSpec of each job
+    private int superSamples = 1;
+    private int maxIterations = 1000;
+    private final long seed = JPPFConfiguration.getProperties().getLong("mandelbrot.seed", 0L);
+    private TileLayout tileLayout = TileLayout.fromConfiguration();
     SwingWorker<Void,Void> swingWorker;
+    private ApplicationRunner runner;
+    // the parameters the image was completely rendered with, null while it is incomplete
+    private RenderSpec renderedSpec;
+    // the cost of the tasks of the last completed render, shown by the heatmap
+    private JobMetrics renderedMetrics;
+    // renders where the user may go next once a render completed, null when disabled
+    private final Prefetcher prefetcher = Prefetcher.fromConfiguration();
 
     public MandelBrotViewer(int width, int height) {
         this.width = width;
@@ -65,8 +95,12 @@ public class MandelBrotViewer extends JFrame {
         origViewPort = new Rectangle2D.Double(-2.5,-1,3.5,2);
         viewPort = new Rectangle2D.Double(origViewPort.x,origViewPort.y,origViewPort.width,origViewPort.height);
         viewPortStack = new Stack<>();
+        centerX = BigDecimal.valueOf(origViewPort.getCenterX());
+        centerY = BigDecimal.valueOf(origViewPort.getCenterY());
+        centerStack = new Stack<>();
 
         image = new BufferedImage(width,height,BufferedImage.TYPE_INT_ARGB);
+        frame = new Frame(image);
         imagePanel = new JPanel() {
 
             @Override
@@ -75,6 +109,10 @@ public class MandelBrotViewer extends JFrame {
                 Graphics2D g2 = (Graphics2D) g;
                 g2.drawImage(image,0,0,null);
 
+                if (heatmapInput.isSelected()) {
+                    paintHeatmap(g2);
+                }
+
                 if(mouseDown) {
                     g2.setColor(Color.RED);
 
@@ -140,24 +178,24 @@ public class MandelBrotViewer extends JFrame {
                 int y = Math.min(mouseDownPoint.y,mouseDragPoint.y);
                 int w = Math.abs(mouseDownPoint.x-mouseDragPoint.x);
                 int h = Math.abs(mouseDownPoint.y-mouseDragPoint.y);
-
-                double nx = 1.0*x/width;
-                double ny = 1.0*y/height;
-                double nx2 = 1.0*(x+w)/width;
-                double ny2 = 1.0*(y+h)/height;
-
-
-                double vx = viewPort.getMinX()+nx*viewPort.getWidth();
-                double vy = viewPort.getMaxY()-ny*viewPort.getHeight();
-
-                double vx2 = viewPort.getMinX()+nx2*viewPort.getWidth();
-                double vy2 = viewPort.getMaxY()-ny2*viewPort.getHeight();
-
-                if(swingWorker != null)
+                if (w == 0 || h == 0) {
+                    // a click without a drag selects nothing to zoom into
                     return;
+                }
+
+                // zoom around the exact centre, relative offsets and sizes are fine as doubles at any depth
+                double offsetX = ((x + w / 2.0) / width - 0.5) * viewPort.getWidth();
+                double offsetY = (0.5 - (y + h / 2.0) / height) * viewPort.getHeight();
+                double viewWidth = 1.0 * w / width * viewPort.getWidth();
+                double viewHeight = 1.0 * h / height * viewPort.getHeight();
 
                 viewPortStack.push(viewPort);
-                viewPort = new Rectangle2D.Double(Math.min(vx,vx2),Math.min(vy,vy2),Math.abs(vx2-vx),Math.abs(vy2-vy));
+                centerStack.push(new BigDecimal[] {centerX, centerY});
+                int scale = ReferenceOrbit.precision(viewWidth / width);
+                centerX = centerX.add(new BigDecimal(offsetX)).setScale(scale, RoundingMode.HALF_EVEN);
+                centerY = centerY.add(new BigDecimal(offsetY)).setScale(scale, RoundingMode.HALF_EVEN);
+                viewPort = new Rectangle2D.Double(centerX.doubleValue() - viewWidth / 2, centerY.doubleValue() - viewHeight / 2,
+                        viewWidth, viewHeight);
                 launchCalculation();
             }
 
@@ -165,6 +203,11 @@ public class MandelBrotViewer extends JFrame {
         imagePanel.addMouseListener(mouseAdapter);
         imagePanel.addMouseMotionListener(mouseAdapter);
         imagePanel.addMouseWheelListener(mouseAdapter);
+        // the arrow keys pan by half the view
+        bindPan("LEFT", -1, 0);
+        bindPan("RIGHT", 1, 0);
+        bindPan("UP", 0, 1);
+        bindPan("DOWN", 0, -1);
         imagePanel.setMinimumSize(new Dimension(width, height));
         imagePanel.setPreferredSize(new Dimension(width, height));
 
@@ -200,6 +243,9 @@ public class MandelBrotViewer extends JFrame {
             public void actionPerformed(ActionEvent e) {
                 if(!viewPortStack.empty()) {
                     viewPort = viewPortStack.pop();
+                    BigDecimal[] center = centerStack.pop();
+                    centerX = center[0];
+                    centerY = center[1];
                     launchCalculation();
                 }
             }
@@ -227,6 +273,72 @@ public class MandelBrotViewer extends JFrame {
         toolBar.add(superSamplesInput);
         toolBar.addSeparator();
 
+        toolBar.add(new JLabel(("\tTile size:\t")));
+        toolBar.addSeparator();
+
+        tileSizeInput = new JTextField(tileLayout.toString());
+        tileSizeInput.setHorizontalAlignment(JTextField.CENTER);
+        toolBar.add(tileSizeInput);
+        toolBar.addSeparator();
+
+        toolBar.add(new JLabel(("\tMode:\t")));
+        toolBar.addSeparator();
+
+        computeModeInput = new JComboBox<>(ComputeMode.values());
+        computeModeInput.setSelectedItem(ComputeMode.parse(JPPFConfiguration.getProperties().getString("mandelbrot.compute.mode", "escape_time")));
+        toolBar.add(computeModeInput);
+        toolBar.addSeparator();
+
+        // colours are applied on this side, changing them only recolours the counts of the current image
+        AbstractAction recolour = new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                recolour();
+            }
+        };
+        toolBar.add(new JLabel(("\tColours:\t")));
+        toolBar.addSeparator();
+
+        paletteInput = new JComboBox<>(Colouring.Palette.values());
+        paletteInput.addActionListener(recolour);
+        toolBar.add(paletteInput);
+        colouringModeInput = new JComboBox<>(Colouring.Mode.values());
+        colouringModeInput.addActionListener(recolour);
+        toolBar.add(colouringModeInput);
+        contrastInput = new JSlider(1, 10, (int) Colouring.DEFAULT.getContrast());
+        contrastInput.setToolTipText("Contrast");
+        contrastInput.setPreferredSize(new Dimension(80, contrastInput.getPreferredSize().height));
+        contrastInput.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                recolour();
+            }
+        });
+        toolBar.add(contrastInput);
+        toolBar.addSeparator();
+
+        // fractional counts are computed by the nodes, so this one needs a render
+        smoothInput = new JCheckBox("Smooth");
+        smoothInput.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                launchCalculation();
+            }
+        });
+        toolBar.add(smoothInput);
+        toolBar.addSeparator();
+
+        heatmapInput = new JCheckBox("Cost heatmap");
+        heatmapInput.setToolTipText("Shades every task by its compute time, relative to the slowest task of the render");
+        heatmapInput.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                imagePanel.repaint();
+            }
+        });
+        toolBar.add(heatmapInput);
+        toolBar.addSeparator();
+
         progressBar = new JProgressBar(JProgressBar.HORIZONTAL,0,100);
         progressBar.setEnabled(false);
         toolBar.add(progressBar);
@@ -273,26 +385,70 @@ public class MandelBrotViewer extends JFrame {
             maxIterations = 5000;
         }
 
+        if (!tileSizeInput.getText().trim().equals(tileLayout.toString())) {
+            try {
+                tileLayout = TileLayout.parse(tileSizeInput.getText());
+            } catch (NumberFormatException nfe) {
+                JOptionPane.showMessageDialog(this, "Tile size needs to be an integer or of the form 64x32");
+                return;
+            }
+        }
+
+
+        // a new render supersedes the one in flight: cancel its job on the grid and drop its late results
+        cancelCalculation();
 
         // launch swingworker
         final long startTime = System.currentTimeMillis();
-        if(swingWorker != null) {
-            swingWorker.cancel(true);
+        final RenderSpec spec = viewSpec(viewPort, centerX, centerY);
+        final TileLayout renderTileLayout = tileLayout;
+
+        // show the part of the previous image we zoomed into while the new one is computed
+        final int[] knownCounts;
+        if (Reprojection.applies(renderedSpec, spec)) {
+            knownCounts = Reprojection.reproject(frame, spec);
+            imagePanel.repaint();
+        } else {
+            knownCounts = null;
         }
+        renderedSpec = null;
+        renderedMetrics = null;
+
+        final ApplicationRunner t = new ApplicationRunner();
+        runner = t;
         swingWorker = new SwingWorker<Void, Void>() {
             @Override
             protected Void doInBackground() throws Exception {
-                Random rnd = new Random();
-
-                ApplicationRunner t = new ApplicationRunner();
-
-                t.createJob(viewPort, image, width, height, "Brian", rnd);
+                t.createJob(spec, frame, renderTileLayout, "Brian", new RenderListener() {
+                    @Override
+                    public void tileRendered(Tile tile, int completedTiles, int totalTiles) {
+                        if (isCancelled()) {
+                            return;
+                        }
+                        setProgress(Math.min(100, 100 * completedTiles / totalTiles));
+                        imagePanel.repaint(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+                    }
+                }, knownCounts);
 
                 return null;
             }
 
             @Override
             protected void done() {
+                if (swingWorker != this) {
+                    // superseded by a newer render, which now owns the toolbar
+                    return;
+                }
+                swingWorker = null;
+                runner = null;
+                renderedMetrics = t.getJobMetrics();
+                try {
+                    get();
+                    renderedSpec = spec;
+                    prefetch();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
                 setProgress(100);
                 imagePanel.repaint();
                 renderButton.setEnabled(true);
@@ -308,23 +464,146 @@ public class MandelBrotViewer extends JFrame {
 
         };
         progressBar.setEnabled(true);
-        renderButton.setEnabled(false);
-        zoomOutButton.setEnabled(false);
+        progressBar.setValue(0);
+        // rendering again or zooming while a render is in flight cancels it, so the buttons stay usable
+        zoomOutButton.setEnabled(!viewPortStack.empty());
         swingWorker.addPropertyChangeListener(new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
+                // tiles repaint their own region as they arrive, only the progress bar is updated here
                 if (evt.getPropertyName().equals("progress")) {
                     progressBar.setValue((Integer)evt.getNewValue());
 
                 }
-
-                if(!evt.getOldValue().equals(evt.getNewValue())) {
-                    imagePanel.repaint();
-                }
             }
         });
         swingWorker.execute();
-        swingWorker = null;
+    }
+
+    /**
+     * @return the render of a view with the settings last entered in the toolbar.
+     */
+    private RenderSpec viewSpec(Rectangle2D.Double viewPort, BigDecimal centerX, BigDecimal centerY) {
+        RenderSpec viewSpec = new RenderSpec(viewPort, width, height, maxIterations, superSamples, seed)
+                .withComputeMode((ComputeMode) computeModeInput.getSelectedItem())
+                .withSmooth(smoothInput.isSelected());
+        if (DoubleDoubleKernel.isNeeded(viewPort.getWidth(), width)) {
+            viewSpec = viewSpec.withCenter(centerX, centerY);
+        }
+        return viewSpec;
+    }
+
+    /**
+     * @return the exact centre of the view after panning it by half its size, {@code dx} times to the right
+     * and {@code dy} times up.
+     */
+    private BigDecimal[] panCenter(int dx, int dy) {
+        int scale = ReferenceOrbit.precision(viewPort.getWidth() / width);
+        return new BigDecimal[] {
+                centerX.add(new BigDecimal(dx * viewPort.getWidth() / 2)).setScale(scale, RoundingMode.HALF_EVEN),
+                centerY.add(new BigDecimal(dy * viewPort.getHeight() / 2)).setScale(scale, RoundingMode.HALF_EVEN)};
+    }
+
+    /**
+     * @return a view of the size of the current one around the given centre.
+     */
+    private Rectangle2D.Double centredViewPort(BigDecimal[] center) {
+        return new Rectangle2D.Double(center[0].doubleValue() - viewPort.getWidth() / 2,
+                center[1].doubleValue() - viewPort.getHeight() / 2, viewPort.getWidth(), viewPort.getHeight());
+    }
+
+    private void bindPan(String key, final int dx, final int dy) {
+        imagePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), "pan " + key);
+        imagePanel.getActionMap().put("pan " + key, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                BigDecimal[] center = panCenter(dx, dy);
+                viewPort = centredViewPort(center);
+                centerX = center[0];
+                centerY = center[1];
+                launchCalculation();
+            }
+        });
+    }
+
+    /**
+     * Prefetches the views one click or key away from the current one: the view zooming out returns to,
+     * then the four views panning reaches. Zooming in is not predicted, any rectangle may be dragged.
+     */
+    private void prefetch() {
+        if (prefetcher == null) {
+            return;
+        }
+        List<RenderSpec> specs = new ArrayList<>();
+        if (!viewPortStack.empty()) {
+            BigDecimal[] center = centerStack.peek();
+            specs.add(viewSpec(viewPortStack.peek(), center[0], center[1]));
+        }
+        int[][] directions = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+        for (int[] direction : directions) {
+            BigDecimal[] center = panCenter(direction[0], direction[1]);
+            specs.add(viewSpec(centredViewPort(center), center[0], center[1]));
+        }
+        prefetcher.prefetch(specs, tileLayout);
+    }
+
+    /**
+     * Applies the colours chosen in the toolbar to the counts of the image, without rendering.
+     */
+    private void recolour() {
+        long startTime = System.nanoTime();
+        frame.recolour(new Colouring((Colouring.Palette) paletteInput.getSelectedItem(),
+                (Colouring.Mode) colouringModeInput.getSelectedItem(), contrastInput.getValue()));
+        imagePanel.repaint();
+        calculationTimeLabel.setText(String.format("\tLast recolour time:\t%.1f ms", (System.nanoTime() - startTime) / 1e6));
+    }
+
+    /**
+     * Shades the tasks of the render in flight, or else of the last render, from transparent for the
+     * cheapest to red for the most expensive, and labels them with their compute time in ms.
+     */
+    private void paintHeatmap(Graphics2D g2) {
+        ApplicationRunner current = runner;
+        JobMetrics metrics = current != null ? current.getJobMetrics() : renderedMetrics;
+        if (metrics == null) {
+            return;
+        }
+        List<JobMetrics.TaskMetrics> tasks = metrics.getTasks();
+        long maxNanos = 1;
+        for (JobMetrics.TaskMetrics task : tasks) {
+            maxNanos = Math.max(maxNanos, task.getComputeNanos());
+        }
+        g2.setFont(g2.getFont().deriveFont(10f));
+        for (JobMetrics.TaskMetrics task : tasks) {
+            Tile tile = task.getTile();
+            int alpha = (int) (200 * task.getComputeNanos() / maxNanos);
+            g2.setColor(new Color(255, 0, 0, alpha));
+            g2.fillRect(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+            g2.setColor(new Color(255, 255, 255, 96));
+            g2.drawRect(tile.getX(), tile.getY(), tile.getWidth() - 1, tile.getHeight() - 1);
+            if (tile.getWidth() >= 32 && tile.getHeight() >= 16) {
+                g2.setColor(Color.WHITE);
+                g2.drawString(String.format("%.0f", task.getComputeNanos() / 1e6), tile.getX() + 3, tile.getY() + 12);
+            }
+        }
+    }
+
+    /**
+     * Cancels the render in flight, if any, both locally and on the grid, and any prefetch.
+     */
+    private void cancelCalculation() {
+        if (prefetcher != null) {
+            // the render needs the grid now, the tiles prefetched so far stay cached
+            prefetcher.cancel();
+        }
+        if (runner != null) {
+            runner.cancel();
+            runner = null;
+        }
+        if(swingWorker != null) {
+            swingWorker.cancel(true);
+            swingWorker = null;
+        }
     }
 
 
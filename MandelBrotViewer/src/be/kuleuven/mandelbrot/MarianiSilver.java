@@ -0,0 +1,124 @@
+package be.kuleuven.mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ * Computes the iteration counts of a tile by Mariani-Silver subdivision.
+ * <p>
+ * The Mandelbrot set is connected and has no holes, so when the whole border of a rectangle is
+ * inside the set, so is everything the border encloses. Such rectangles are filled with the
+ * iteration budget without iterating their inside; other rectangles are split in two along their
+ * longest side, sharing the pixels of the split line, until they are small enough to be computed
+ * pixel by pixel. On views with large black regions this skips most of the expensive pixels.
+ * <p>
+ * Only rectangles whose border is entirely inside the set are filled, as a uniform escape count
+ * on a border does not imply the same count inside it. The border is only known at the pixel
+ * centres, so a thin filament of the exterior can cross it between two of them; the pixels it
+ * reaches inside the rectangle are then filled as well, which makes the tiles differ from escape
+ * time tiles and keeps them apart in the tile cache.
+ */
+public abstract class MarianiSilver {
+
+    /**
+     * Rectangles with at most this many pixels are computed pixel by pixel.
+     */
+    private static final int MIN_AREA = 64;
+
+    private final int maxIterations;
+    private Tile tile;
+    private int[] counts;
+
+    /**
+     * @param maxIterations the iteration budget, the count of the samples inside the set.
+     */
+    protected MarianiSilver(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Runs the escape time algorithm for one pixel.
+     *
+     * @param w the column of the pixel in the image.
+     * @param h the row of the pixel in the image.
+     * @return the iteration count of the pixel, or a negative value to abort the subdivision.
+     */
+    protected abstract int escapeTime(int w, int h);
+
+    /**
+     * @return the iteration count of every pixel of the tile, row by row, or {@code null} if
+     * {@link #escapeTime(int, int)} aborted.
+     */
+    public int[] compute(Tile tile) {
+        this.tile = tile;
+        counts = new int[tile.getPixelCount()];
+        Arrays.fill(counts, -1);
+        if (!subdivide(0, 0, tile.getWidth() - 1, tile.getHeight() - 1)) {
+            return null;
+        }
+        return counts;
+    }
+
+    /**
+     * Computes the rectangle of the tile with the given inclusive corners.
+     * @return {@code false} if the computation was aborted.
+     */
+    private boolean subdivide(int x0, int y0, int x1, int y1) {
+        boolean inside = true;
+        for (int x = x0; x <= x1; x++) {
+            int top = count(x, y0);
+            int bottom = count(x, y1);
+            if (top < 0 || bottom < 0) {
+                return false;
+            }
+            inside &= top == maxIterations && bottom == maxIterations;
+        }
+        for (int y = y0 + 1; y < y1; y++) {
+            int left = count(x0, y);
+            int right = count(x1, y);
+            if (left < 0 || right < 0) {
+                return false;
+            }
+            inside &= left == maxIterations && right == maxIterations;
+        }
+        if (x1 - x0 < 2 || y1 - y0 < 2) {
+            // nothing but border
+            return true;
+        }
+
+        if (inside) {
+            for (int y = y0 + 1; y < y1; y++) {
+                Arrays.fill(counts, y * tile.getWidth() + x0 + 1, y * tile.getWidth() + x1, maxIterations);
+            }
+            return true;
+        }
+
+        if ((x1 - x0 + 1) * (y1 - y0 + 1) <= MIN_AREA) {
+            for (int y = y0 + 1; y < y1; y++) {
+                for (int x = x0 + 1; x < x1; x++) {
+                    if (count(x, y) < 0) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        if (x1 - x0 >= y1 - y0) {
+            int mid = (x0 + x1) / 2;
+            return subdivide(x0, y0, mid, y1) && subdivide(mid, y0, x1, y1);
+        }
+        int mid = (y0 + y1) / 2;
+        return subdivide(x0, y0, x1, mid) && subdivide(x0, mid, x1, y1);
+    }
+
+    /**
+     * @return the count of the pixel at the given position in the tile, computing it on first use.
+     */
+    private int count(int x, int y) {
+        int i = y * tile.getWidth() + x;
+        if (counts[i] < 0) {
+            counts[i] = escapeTime(tile.getX() + x, tile.getY() + y);
+        }
+        return counts[i];
+    }
+}
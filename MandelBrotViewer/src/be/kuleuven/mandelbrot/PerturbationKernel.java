@@ -0,0 +1,97 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * Iterates samples of a deep zoom as a small difference with a {@link ReferenceOrbit}.
+ * <p>
+ * With z = Z + d and c = C + dc, the iteration z = z^2 + c becomes
+ * d(n+1) = 2 Z(n) d(n) + d(n)^2 + dc, which only involves the tiny differences d and dc and
+ * the orbit Z of the centre, so doubles suffice however deep the zoom (down to where dc^2
+ * underflows, around 1e-150). The samples are given by their offset dc from the centre.
+ * <p>
+ * Where the sample's z comes closer to 0 than to the reference, d loses the precision to follow
+ * it (a glitch in the image). That is detected by |Z + d| &lt; |d|, and the sample is then rebased
+ * onto the start of the reference orbit: d becomes z and the reference index goes back to 0,
+ * which is exact since Z(0) = 0. The same happens when the sample outlives the reference, so
+ * the centre of the view does not need to be inside the set.
+ * <p>
+ * Resuming from an earlier z is not supported, samples always start from z = 0.
+ */
+public class PerturbationKernel extends EscapeTimeKernel {
+
+    /**
+     * Views with pixels smaller than this are rendered with this kernel, shallower deep zooms with a
+     * {@link DoubleDoubleKernel}, which needs no reference orbit.
+     */
+    public static final double PIXEL_SIZE_LIMIT = 1e-22;
+
+    /**
+     * Number of iterations between two checks of the cancel flag, minus one.
+     */
+    private static final int CANCEL_MASK = 0x3ff;
+
+    private final double[] refX, refY;
+    private final int last;
+
+    public PerturbationKernel(ReferenceOrbit orbit) {
+        refX = orbit.getZx();
+        refY = orbit.getZy();
+        last = orbit.getLength() - 1;
+    }
+
+    /**
+     * @return whether a view of the given width in the complex plane needs this kernel at the given width in pixels.
+     */
+    public static boolean isNeeded(double viewWidth, int width) {
+        return viewWidth / width < PIXEL_SIZE_LIMIT;
+    }
+
+    /**
+     * Iterates a sample from z = 0.
+     *
+     * @param dcx the real part of the offset of the sample from the centre of the view.
+     * @param dcy the imaginary part of the offset of the sample from the centre of the view.
+     * @param x ignored, must be 0.
+     * @param y ignored, must be 0.
+     * @param iteration ignored, must be 0.
+     * @param maxIterations the iteration budget.
+     * @return the number of iterations after which |z| reached 2, {@code maxIterations} if it did not,
+     * or -1 if the kernel was cancelled.
+     */
+    @Override
+    public int iterate(double dcx, double dcy, double x, double y, int iteration, int maxIterations) {
+        double dx = 0, dy = 0;
+        int m = 0;
+        int n = 0;
+        while (n < maxIterations) {
+            if (m == last) {
+                // the reference escaped or ended here, continue from its start
+                dx += refX[m];
+                dy += refY[m];
+                m = 0;
+            }
+            if ((n & CANCEL_MASK) == CANCEL_MASK && isCancelled()) {
+                return -1;
+            }
+            double zx = refX[m], zy = refY[m];
+            double ndx = 2 * (zx * dx - zy * dy) + dx * dx - dy * dy + dcx;
+            dy = 2 * (zx * dy + zy * dx) + 2 * dx * dy + dcy;
+            dx = ndx;
+            m++;
+            n++;
+
+            double fx = refX[m] + dx;
+            double fy = refY[m] + dy;
+            double r = fx * fx + fy * fy;
+            if (!(r < 4)) {
+                break;
+            }
+            if (r < dx * dx + dy * dy) {
+                // glitch: z is better described on its own than relative to this point of the reference
+                dx = fx;
+                dy = fy;
+                m = 0;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,120 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+import org.jppf.utils.TypedProperties;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders the views the user is likely to go to next while the grid would otherwise be idle, such as
+ * the view zooming out returns to, so that their tiles are in the tile cache and store when asked for.
+ * <p>
+ * The views are rendered one job at a time, in the order given, on a background thread, as jobs of a
+ * lower priority than renders: the driver only gives them nodes no render needs. As soon as a render
+ * starts, {@link #cancel()} stops the prefetch job on the grid and drops the views not started yet; the
+ * tiles already returned are kept. Deep zooms are not prefetched, as their tiles are not cached.
+ * <pre>
+ * mandelbrot.prefetch.enabled = false
+ * mandelbrot.prefetch.priority = -10
+ * </pre>
+ */
+public class Prefetcher {
+
+    private final int priority;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Prefetcher");
+            // never keeps the viewer from exiting
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Incremented by every call to {@link #prefetch} and {@link #cancel}, views of earlier calls are dropped.
+     */
+    private int generation;
+
+    /**
+     * The runner of the prefetch job in flight, if any.
+     */
+    private ApplicationRunner runner;
+
+    /**
+     * @param priority the priority of the prefetch jobs, lower than the 0 of renders.
+     */
+    public Prefetcher(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return the prefetcher configured by the {@code mandelbrot.prefetch} properties, or {@code null} when disabled.
+     */
+    public static Prefetcher fromConfiguration() {
+        TypedProperties props = JPPFConfiguration.getProperties();
+        if (!props.getBoolean("mandelbrot.prefetch.enabled", false)) {
+            return null;
+        }
+        return new Prefetcher(props.getInt("mandelbrot.prefetch.priority", -10));
+    }
+
+    /**
+     * Cancels what is being prefetched and starts prefetching the given views instead.
+     *
+     * @param specs the views, most likely first, rendered as a render of them would be.
+     * @param tileLayout the layout those renders would use, so that the tiles are the same.
+     */
+    public void prefetch(final List<RenderSpec> specs, final TileLayout tileLayout) {
+        final int prefetchGeneration;
+        synchronized (this) {
+            cancel();
+            prefetchGeneration = generation;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < specs.size(); i++) {
+                    RenderSpec spec = specs.get(i);
+                    if (spec.isDeepZoom()) {
+                        continue;
+                    }
+                    ApplicationRunner current;
+                    synchronized (Prefetcher.this) {
+                        if (generation != prefetchGeneration) {
+                            return;
+                        }
+                        current = new ApplicationRunner();
+                        current.setPriority(priority);
+                        runner = current;
+                    }
+                    try {
+                        current.createJob(spec, null, tileLayout, "Prefetch " + (i + 1) + "/" + specs.size(), null, null);
+                    } catch (Exception e) {
+                        System.out.println("Could not prefetch " + spec + ": " + e.getMessage());
+                    }
+                    synchronized (Prefetcher.this) {
+                        if (runner == current) {
+                            runner = null;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the prefetch job in flight, if any, and drops the views not prefetched yet.
+     */
+    public synchronized void cancel() {
+        generation++;
+        if (runner != null) {
+            runner.cancel();
+            runner = null;
+        }
+    }
+}
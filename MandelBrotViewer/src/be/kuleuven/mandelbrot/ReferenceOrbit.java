@@ -0,0 +1,99 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The orbit Z(n+1) = Z(n)^2 + C of the centre C of a deep zoom, iterated in arbitrary precision.
+ * <p>
+ * Beyond a zoom of about 1e-13 the pixels of a view are closer together than doubles near the
+ * centre can resolve, and beyond about 1e-22 even a {@link DoubleDoubleKernel} runs out of digits.
+ * The orbit of the centre is then iterated once per job with {@link BigDecimal}s,
+ * rounded to doubles and shared with all tasks through the job's data provider; the tasks only
+ * iterate the small difference of each sample with this orbit in doubles, see {@link PerturbationKernel}.
+ * Only the difference needs the precision of the zoom, the orbit itself does not.
+ */
+public class ReferenceOrbit implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Key of the reference orbit in the data provider of a job.
+     */
+    public static final String KEY = "mandelbrot.referenceOrbit";
+
+    /**
+     * Digits computed beyond those needed to tell two pixels apart.
+     */
+    private static final int GUARD_DIGITS = 10;
+
+    /**
+     * Z(0) = 0, Z(1) = C, ... up to the last Z that did not escape, and at least Z(1).
+     */
+    private final double[] zx, zy;
+
+    private ReferenceOrbit(double[] zx, double[] zy) {
+        this.zx = zx;
+        this.zy = zy;
+    }
+
+    /**
+     * Iterates the orbit of the centre of a deep zoom.
+     *
+     * @param spec a spec with a {@link RenderSpec#isDeepZoom() deep zoom} centre.
+     * @return the orbit, until it escapes or reaches the iteration budget of the spec.
+     */
+    public static ReferenceOrbit compute(RenderSpec spec) {
+        MathContext mc = new MathContext(precision(spec.getViewWidth() / spec.getWidth()));
+        BigDecimal cx = spec.getCenterX().round(mc);
+        BigDecimal cy = spec.getCenterY().round(mc);
+        BigDecimal four = BigDecimal.valueOf(4);
+
+        int max = spec.getMaxIterations();
+        double[] zx = new double[max + 1];
+        double[] zy = new double[max + 1];
+        BigDecimal x = BigDecimal.ZERO, y = BigDecimal.ZERO;
+        int length = 1;
+        while (length <= max) {
+            BigDecimal x2 = x.multiply(x, mc);
+            BigDecimal y2 = y.multiply(y, mc);
+            BigDecimal xy = x.multiply(y, mc);
+            x = x2.subtract(y2, mc).add(cx, mc);
+            y = xy.add(xy, mc).add(cy, mc);
+            if (length > 1 && x.multiply(x, mc).add(y.multiply(y, mc), mc).compareTo(four) >= 0) {
+                break;
+            }
+            zx[length] = x.doubleValue();
+            zy[length] = y.doubleValue();
+            length++;
+        }
+        double[] orbitX = new double[length];
+        double[] orbitY = new double[length];
+        System.arraycopy(zx, 0, orbitX, 0, length);
+        System.arraycopy(zy, 0, orbitY, 0, length);
+        return new ReferenceOrbit(orbitX, orbitY);
+    }
+
+    /**
+     * @return the number of significant digits needed for a view with pixels of the given size.
+     */
+    static int precision(double pixelSize) {
+        return Math.max(17, (int) Math.ceil(-Math.log10(pixelSize))) + GUARD_DIGITS;
+    }
+
+    /**
+     * @return the number of points of the orbit, Z(0) included.
+     */
+    public int getLength() {
+        return zx.length;
+    }
+
+    double[] getZx() {
+        return zx;
+    }
+
+    double[] getZy() {
+        return zy;
+    }
+}
@@ -0,0 +1,61 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.node.protocol.DataProvider;
+import org.jppf.node.protocol.Task;
+
+import java.util.List;
+
+/**
+ * Executes the tile tasks of a render, either on the JPPF grid or in this JVM.
+ * <p>
+ * The backend is chosen by the {@link ApplicationRunner} from the client configuration:
+ * <pre>
+ * # jppf sends every render to the grid, local renders on the cores of this machine,
+ * # auto renders locally when the render has at most mandelbrot.backend.local.samples samples to compute
+ * mandelbrot.backend = auto
+ * mandelbrot.backend.local.samples = 262144
+ * # number of threads of the local backend, 0 for one per core
+ * mandelbrot.backend.local.threads = 0
+ * </pre>
+ * Both backends run the same tasks on the same inputs, so they produce the same images.
+ */
+public interface RenderBackend {
+
+    /**
+     * Starts executing tasks; returns without waiting for them to finish.
+     *
+     * @param jobName a human-readable name for the tasks.
+     * @param dataProvider the data shared by all tasks, see {@link RenderSpec#KEY}.
+     * @param tasks the tasks to execute.
+     * @param priority the priority of the tasks relative to those of other submissions, 0 for renders the
+     * user is waiting for; backends that cannot order submissions ignore it.
+     * @param callback notified as tasks finish, from threads of the backend.
+     * @return a handle on the running tasks.
+     * @throws Exception if the tasks could not be submitted.
+     */
+    Execution submit(String jobName, DataProvider dataProvider, List<TemplateJPPFTask> tasks, int priority,
+                     Callback callback) throws Exception;
+
+    /**
+     * Receives tasks once they finished, with either their result or their throwable set.
+     */
+    interface Callback {
+        void tasksReturned(List<? extends Task<?>> tasks);
+    }
+
+    /**
+     * The tasks submitted by one call to {@link #submit}.
+     */
+    interface Execution {
+
+        /**
+         * Stops the tasks still running; tasks that were not started yet never run.
+         */
+        void cancel();
+
+        /**
+         * Waits until every task returned or the execution was cancelled.
+         */
+        void awaitResults();
+    }
+}
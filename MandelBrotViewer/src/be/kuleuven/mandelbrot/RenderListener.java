@@ -0,0 +1,18 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * Receives tiles as soon as their pixels have been written into the image,
+ * so that the picture can be shown while the rest of the job is still running.
+ * Notifications arrive on a thread of the render backend, not on the Swing event dispatch thread.
+ */
+public interface RenderListener {
+
+    /**
+     * Called once for each tile that has been written into the image.
+     *
+     * @param tile the tile whose pixels are now in the image.
+     * @param completedTiles the number of tiles written so far, including this one.
+     * @param totalTiles the number of tiles in the job.
+     */
+    void tileRendered(Tile tile, int completedTiles, int totalTiles);
+}
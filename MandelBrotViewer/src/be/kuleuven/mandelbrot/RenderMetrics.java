@@ -0,0 +1,227 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+import org.jppf.utils.TypedProperties;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the {@link JobMetrics} of the completed render jobs of this client, to find stragglers
+ * and badly sized tasks.
+ * <p>
+ * Totals and the metrics of the last job are published over JMX as a {@link RenderMetricsMBean},
+ * and every returned task can be appended to a CSV log, one line per task, written once its job completed.
+ * Both are configured in the client configuration:
+ * <pre>
+ * mandelbrot.metrics.jmx = true
+ * # no log when empty
+ * mandelbrot.metrics.log = metrics.csv
+ * </pre>
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+
+    public static final String OBJECT_NAME = "be.kuleuven.mandelbrot:type=RenderMetrics";
+
+    private static final String CSV_HEADER =
+            "job,submitted,x,y,width,height,node,computeMillis,iterations,resultBytes,returnedMillis,failed";
+
+    /**
+     * The CSV log, {@code null} when disabled.
+     */
+    private final File log;
+
+    private long jobsCompleted, tasksCompleted, totalIterations, totalResultBytes;
+    private JobMetrics lastJob;
+
+    public RenderMetrics(File log) {
+        this.log = log;
+    }
+
+    /**
+     * @return the metrics described by the {@code mandelbrot.metrics.*} properties, registered with the
+     * platform MBean server if JMX is enabled.
+     */
+    public static RenderMetrics fromConfiguration() {
+        TypedProperties props = JPPFConfiguration.getProperties();
+        String log = props.getString("mandelbrot.metrics.log", "").trim();
+        RenderMetrics metrics = new RenderMetrics(log.isEmpty() ? null : new File(log));
+        if (props.getBoolean("mandelbrot.metrics.jmx", true)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                System.out.println("Render metrics not available over JMX: " + e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Adds a job whose tasks all returned to the totals, and logs its tasks.
+     */
+    public void jobCompleted(JobMetrics job) {
+        synchronized (this) {
+            jobsCompleted++;
+            tasksCompleted += job.getTasks().size();
+            totalIterations += job.getIterations();
+            totalResultBytes += job.getResultBytes();
+            lastJob = job;
+        }
+        if (log != null) {
+            try {
+                writeCsv(job);
+            } catch (IOException e) {
+                System.out.println("Could not write the metrics of job '" + job.getJobName() + "' to " + log + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void writeCsv(JobMetrics job) throws IOException {
+        boolean header = !log.exists() || log.length() == 0;
+        try (PrintWriter out = new PrintWriter(new FileWriter(log, true))) {
+            if (header) {
+                out.println(CSV_HEADER);
+            }
+            String name = job.getJobName().replace(',', ' ');
+            for (JobMetrics.TaskMetrics task : job.getTasks()) {
+                Tile tile = task.getTile();
+                out.println(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%s,%.3f,%d,%d,%.3f,%b",
+                        name, job.getSubmitMillis(), tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(),
+                        String.valueOf(task.getNode()).replace(',', ' '), task.getComputeNanos() / 1e6, task.getIterations(),
+                        task.getResultBytes(), task.getReturnedNanos() / 1e6, task.isFailed()));
+            }
+        }
+    }
+
+    /**
+     * @return the last job that completed, {@code null} before the first.
+     */
+    public synchronized JobMetrics getLastJob() {
+        return lastJob;
+    }
+
+    @Override
+    public synchronized long getJobsCompleted() {
+        return jobsCompleted;
+    }
+
+    @Override
+    public synchronized long getTasksCompleted() {
+        return tasksCompleted;
+    }
+
+    @Override
+    public synchronized long getTotalIterations() {
+        return totalIterations;
+    }
+
+    @Override
+    public synchronized long getTotalResultBytes() {
+        return totalResultBytes;
+    }
+
+    @Override
+    public synchronized String getLastJobName() {
+        return lastJob == null ? null : lastJob.getJobName();
+    }
+
+    @Override
+    public synchronized int getLastJobTasks() {
+        return lastJob == null ? 0 : lastJob.getTasks().size();
+    }
+
+    @Override
+    public synchronized int getLastJobFailedTasks() {
+        int failed = 0;
+        if (lastJob != null) {
+            for (JobMetrics.TaskMetrics task : lastJob.getTasks()) {
+                if (task.isFailed()) {
+                    failed++;
+                }
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public synchronized double getLastJobFirstResultMillis() {
+        return lastJob == null ? 0 : lastJob.getFirstResultNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastJobLastResultMillis() {
+        return lastJob == null ? 0 : lastJob.getLastResultNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized long getLastJobIterations() {
+        return lastJob == null ? 0 : lastJob.getIterations();
+    }
+
+    @Override
+    public synchronized long getLastJobResultBytes() {
+        return lastJob == null ? 0 : lastJob.getResultBytes();
+    }
+
+    @Override
+    public synchronized double getLastJobMeanTaskMillis() {
+        if (lastJob == null || lastJob.getTasks().isEmpty()) {
+            return 0;
+        }
+        long nanos = 0;
+        for (JobMetrics.TaskMetrics task : lastJob.getTasks()) {
+            nanos += task.getComputeNanos();
+        }
+        return nanos / 1e6 / lastJob.getTasks().size();
+    }
+
+    @Override
+    public synchronized double getLastJobMaxTaskMillis() {
+        JobMetrics.TaskMetrics slowest = lastJob == null ? null : lastJob.getSlowestTask();
+        return slowest == null ? 0 : slowest.getComputeNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized String getLastJobSlowestTile() {
+        JobMetrics.TaskMetrics slowest = lastJob == null ? null : lastJob.getSlowestTask();
+        return slowest == null ? null : slowest.getTile().toString();
+    }
+
+    @Override
+    public synchronized String getLastJobSlowestNode() {
+        JobMetrics.TaskMetrics slowest = lastJob == null ? null : lastJob.getSlowestTask();
+        return slowest == null ? null : slowest.getNode();
+    }
+
+    @Override
+    public synchronized String[] getLastJobNodes() {
+        if (lastJob == null) {
+            return new String[0];
+        }
+        // tasks and compute nanos per node
+        Map<String, long[]> nodes = new TreeMap<>();
+        for (JobMetrics.TaskMetrics task : lastJob.getTasks()) {
+            String node = String.valueOf(task.getNode());
+            long[] totals = nodes.get(node);
+            if (totals == null) {
+                totals = new long[2];
+                nodes.put(node, totals);
+            }
+            totals[0]++;
+            totals[1] += task.getComputeNanos();
+        }
+        String[] lines = new String[nodes.size()];
+        int i = 0;
+        for (Map.Entry<String, long[]> node : nodes.entrySet()) {
+            lines[i++] = String.format(Locale.ROOT, "%s: %d tasks, %.1f ms", node.getKey(), node.getValue()[0], node.getValue()[1] / 1e6);
+        }
+        return lines;
+    }
+}
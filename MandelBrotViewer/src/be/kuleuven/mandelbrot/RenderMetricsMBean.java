@@ -0,0 +1,46 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * The render metrics of the client as seen over JMX, under {@link RenderMetrics#OBJECT_NAME}.
+ * Durations are in milliseconds; the {@code LastJob} attributes describe the last job that completed.
+ */
+public interface RenderMetricsMBean {
+
+    long getJobsCompleted();
+
+    long getTasksCompleted();
+
+    long getTotalIterations();
+
+    long getTotalResultBytes();
+
+    String getLastJobName();
+
+    int getLastJobTasks();
+
+    int getLastJobFailedTasks();
+
+    double getLastJobFirstResultMillis();
+
+    double getLastJobLastResultMillis();
+
+    long getLastJobIterations();
+
+    long getLastJobResultBytes();
+
+    double getLastJobMeanTaskMillis();
+
+    double getLastJobMaxTaskMillis();
+
+    /**
+     * @return the tile of the task that computed longest in the last job.
+     */
+    String getLastJobSlowestTile();
+
+    String getLastJobSlowestNode();
+
+    /**
+     * @return for each node that ran tasks of the last job, its number of tasks and their compute time.
+     */
+    String[] getLastJobNodes();
+}
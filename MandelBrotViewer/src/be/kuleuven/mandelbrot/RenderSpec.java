@@ -0,0 +1,213 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Everything a node needs to know to render a tile, apart from the tile itself.
+ * A render spec is immutable and is shared by all tasks of a job through the job's
+ * {@link org.jppf.node.protocol.DataProvider DataProvider}, so it travels once per job
+ * instead of once per task and never depends on the statics of the node's JVM.
+ */
+public class RenderSpec implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Key of the render spec in the data provider of a job.
+     */
+    public static final String KEY = "mandelbrot.renderSpec";
+
+    private final double minX, minY, viewWidth, viewHeight;
+    private final int width, height;
+    private final int maxIterations;
+    private final int superSamples;
+    private final long seed;
+    // options, only ever set on a fresh copy by the with* methods
+    private boolean escapeState;
+    private boolean smooth;
+    private boolean packedCounts;
+    private ComputeMode computeMode = ComputeMode.ESCAPE_TIME;
+    private BigDecimal centerX, centerY;
+
+    /**
+     * @param viewPort the region of the complex plane to render, copied.
+     * @param width the width of the whole image in pixels.
+     * @param height the height of the whole image in pixels.
+     * @param maxIterations the escape time iteration budget per sample.
+     * @param superSamples the number of samples per pixel.
+     * @param seed seeds the sample positions when super sampling, see {@link SamplePattern}.
+     */
+    public RenderSpec(Rectangle2D viewPort, int width, int height, int maxIterations, int superSamples, long seed) {
+        this.minX = viewPort.getMinX();
+        this.minY = viewPort.getMinY();
+        this.viewWidth = viewPort.getWidth();
+        this.viewHeight = viewPort.getHeight();
+        this.width = width;
+        this.height = height;
+        this.maxIterations = maxIterations;
+        this.superSamples = superSamples;
+        this.seed = seed;
+    }
+
+    private RenderSpec(RenderSpec spec) {
+        this.minX = spec.minX;
+        this.minY = spec.minY;
+        this.viewWidth = spec.viewWidth;
+        this.viewHeight = spec.viewHeight;
+        this.width = spec.width;
+        this.height = spec.height;
+        this.maxIterations = spec.maxIterations;
+        this.superSamples = spec.superSamples;
+        this.seed = spec.seed;
+        this.escapeState = spec.escapeState;
+        this.smooth = spec.smooth;
+        this.packedCounts = spec.packedCounts;
+        this.computeMode = spec.computeMode;
+        this.centerX = spec.centerX;
+        this.centerY = spec.centerY;
+    }
+
+    /**
+     * @return a copy of this spec telling tasks whether to return their {@link EscapeState}.
+     */
+    public RenderSpec withEscapeState(boolean escapeState) {
+        RenderSpec copy = new RenderSpec(this);
+        copy.escapeState = escapeState;
+        return copy;
+    }
+
+    /**
+     * @return a copy of this spec telling tasks whether to return fractional iteration counts, see
+     * {@link TemplateJPPFTask#FRACTION_BITS}.
+     */
+    public RenderSpec withSmooth(boolean smooth) {
+        RenderSpec copy = new RenderSpec(this);
+        copy.smooth = smooth;
+        return copy;
+    }
+
+    /**
+     * @return a copy of this spec telling tasks on nodes whether to return their counts packed by the {@link CountCodec}.
+     */
+    public RenderSpec withPackedCounts(boolean packedCounts) {
+        RenderSpec copy = new RenderSpec(this);
+        copy.packedCounts = packedCounts;
+        return copy;
+    }
+
+    /**
+     * @return a copy of this spec telling tasks how to compute their tile.
+     */
+    public RenderSpec withComputeMode(ComputeMode computeMode) {
+        RenderSpec copy = new RenderSpec(this);
+        copy.computeMode = computeMode;
+        return copy;
+    }
+
+    /**
+     * Makes this spec a deep zoom: the viewport only gives the size of the view, and sample positions are
+     * offsets from the given, exact, centre, iterated with a {@link DoubleDoubleKernel} or a {@link PerturbationKernel}.
+     * @return a copy of this spec centred on the given point.
+     */
+    public RenderSpec withCenter(BigDecimal centerX, BigDecimal centerY) {
+        RenderSpec copy = new RenderSpec(this);
+        copy.centerX = centerX;
+        copy.centerY = centerY;
+        return copy;
+    }
+
+    /**
+     * @return a copy of the rendered region of the complex plane.
+     */
+    public Rectangle2D.Double getViewPort() {
+        return new Rectangle2D.Double(minX, minY, viewWidth, viewHeight);
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxY() {
+        return minY + viewHeight;
+    }
+
+    public double getViewWidth() {
+        return viewWidth;
+    }
+
+    public double getViewHeight() {
+        return viewHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public int getSuperSamples() {
+        return superSamples;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return whether tasks return the escape state of their samples along with the iteration counts.
+     */
+    public boolean isEscapeState() {
+        return escapeState;
+    }
+
+    /**
+     * @return whether the iteration counts of escaped samples have a fractional part.
+     */
+    public boolean isSmooth() {
+        return smooth;
+    }
+
+    /**
+     * @return whether tasks run on a node return their counts packed, see {@link TemplateJPPFTask#getCounts()}.
+     */
+    public boolean isPackedCounts() {
+        return packedCounts;
+    }
+
+    public ComputeMode getComputeMode() {
+        return computeMode;
+    }
+
+    /**
+     * @return whether this spec is a deep zoom, with an exact centre, see {@link #withCenter(BigDecimal, BigDecimal)}.
+     */
+    public boolean isDeepZoom() {
+        return centerX != null;
+    }
+
+    public BigDecimal getCenterX() {
+        return centerX;
+    }
+
+    public BigDecimal getCenterY() {
+        return centerY;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RenderSpec[x=%s, y=%s, w=%s, h=%s, %dx%d, maxIterations=%d, superSamples=%d]",
+                minX, minY, viewWidth, viewHeight, width, height, maxIterations, superSamples);
+    }
+}
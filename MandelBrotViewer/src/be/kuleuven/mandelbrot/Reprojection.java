@@ -0,0 +1,179 @@
+package be.kuleuven.mandelbrot;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Reuses the image of the previous render when zooming into part of it.
+ * <p>
+ * The previous image is scaled into the new viewport as an instant, blurry preview. Pixels of the
+ * new render whose sample lands on the sample of a pixel of the previous render are known: their
+ * iteration count is taken from the previous {@link Frame} and not computed again. This happens
+ * for pans by whole pixels and for zooms by an odd integer factor aligned on the previous pixel grid.
+ * <p>
+ * The samples only coincide up to {@link #TOLERANCE}, so near the boundary of the set a known count
+ * may be off from the count of the new sample. Known counts are therefore only shown and used to skip
+ * work in the render at hand; the tiles they are part of are never kept in the tile cache or store.
+ */
+public class Reprojection {
+
+    /**
+     * How far, in pixels of the previous render, two samples may be apart to be considered the same point.
+     * This only absorbs the rounding of the pixel to plane conversions.
+     */
+    private static final double TOLERANCE = 1e-3;
+
+    private Reprojection() {
+    }
+
+    /**
+     * @return whether the image rendered with {@code from} holds anything useful for a render of {@code to}.
+     */
+    public static boolean applies(RenderSpec from, RenderSpec to) {
+        // the viewport of a deep zoom is only an approximation
+        return from != null && !from.isDeepZoom() && !to.isDeepZoom()
+                && from.getWidth() == to.getWidth() && from.getHeight() == to.getHeight()
+                && from.getViewPort().contains(to.getViewPort());
+    }
+
+    /**
+     * Replaces the image of the frame by a scaled up preview of the part covered by {@code to}.
+     * The counts of the frame are left alone.
+     *
+     * @param frame a frame rendered with a spec that {@link #applies} to {@code to}.
+     * @return the known counts of the new render, in the layout of the image, with
+     * {@link TemplateJPPFTask#UNKNOWN} for the pixels that still need to be computed, or {@code null} when no pixel is known.
+     */
+    public static int[] reproject(Frame frame, RenderSpec to) {
+        RenderSpec from = frame.getSpec();
+        BufferedImage image = frame.getImage();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] previous = data.clone();
+
+        int[] sources = exactSources(from, to);
+        int[] known = null;
+        if (sources != null) {
+            int[] counts = frame.getCounts();
+            known = new int[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                known[i] = sources[i] < 0 ? TemplateJPPFTask.UNKNOWN : counts[sources[i]];
+            }
+        }
+
+        BufferedImage source = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        System.arraycopy(previous, 0, ((DataBufferInt) source.getRaster().getDataBuffer()).getData(), 0, previous.length);
+
+        // maps pixel coordinates of the previous image onto pixel coordinates of the new one
+        double scaleX = from.getViewWidth() / to.getViewWidth();
+        double scaleY = from.getViewHeight() / to.getViewHeight();
+        double offsetX = (to.getMinX() - from.getMinX()) / from.getViewWidth() * width;
+        double offsetY = (from.getMaxY() - to.getMaxY()) / from.getViewHeight() * height;
+        AffineTransform transform = AffineTransform.getScaleInstance(scaleX, scaleY);
+        transform.translate(-offsetX, -offsetY);
+
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, transform, null);
+        g.dispose();
+
+        if (sources != null) {
+            // the exact pixels keep their colour rather than the interpolated one
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] >= 0) {
+                    data[i] = previous[sources[i]];
+                }
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Finds the pixels of the new render whose sample coincides with the sample of a previous pixel.
+     * Only single sample renders with the same budget qualify, as the count of a pixel then only
+     * depends on the position of its sample.
+     * @return the index of that previous pixel for each new pixel, -1 if there is none, or {@code null} if there are none at all.
+     */
+    private static int[] exactSources(RenderSpec from, RenderSpec to) {
+        if (from.getSuperSamples() != 1 || to.getSuperSamples() != 1
+                || from.getMaxIterations() != to.getMaxIterations() || from.isSmooth() != to.isSmooth()) {
+            return null;
+        }
+        int width = to.getWidth();
+        int height = to.getHeight();
+
+        // the previous pixel column of each new column, or -1 when they do not line up
+        int[] columns = new int[width];
+        for (int w = 0; w < width; w++) {
+            double x = to.getMinX() + (w + .5) / width * to.getViewWidth();
+            columns[w] = alignedIndex((x - from.getMinX()) / from.getViewWidth() * width - .5, width);
+        }
+        int[] rows = new int[height];
+        for (int h = 0; h < height; h++) {
+            double y = to.getMaxY() - (h + .5) / height * to.getViewHeight();
+            rows[h] = alignedIndex((from.getMaxY() - y) / from.getViewHeight() * height - .5, height);
+        }
+
+        int[] sources = null;
+        for (int h = 0; h < height; h++) {
+            if (rows[h] < 0) {
+                continue;
+            }
+            for (int w = 0; w < width; w++) {
+                if (columns[w] < 0) {
+                    continue;
+                }
+                if (sources == null) {
+                    sources = new int[width * height];
+                    Arrays.fill(sources, -1);
+                }
+                sources[h * width + w] = rows[h] * width + columns[w];
+            }
+        }
+        return sources;
+    }
+
+    private static int alignedIndex(double position, int size) {
+        long index = Math.round(position);
+        if (index < 0 || index >= size || Math.abs(position - index) > TOLERANCE) {
+            return -1;
+        }
+        return (int) index;
+    }
+
+    /**
+     * Extracts the part of a full frame of known counts covered by a tile.
+     *
+     * @return the counts of the tile, {@link TemplateJPPFTask#UNKNOWN} where unknown, or {@code null} if none of them is known.
+     */
+    static int[] tileCounts(int[] known, int width, Tile tile) {
+        int[] counts = new int[tile.getPixelCount()];
+        boolean any = false;
+        for (int row = 0; row < tile.getHeight(); row++) {
+            System.arraycopy(known, (tile.getY() + row) * width + tile.getX(), counts, row * tile.getWidth(), tile.getWidth());
+        }
+        for (int count : counts) {
+            if (count != TemplateJPPFTask.UNKNOWN) {
+                any = true;
+                break;
+            }
+        }
+        return any ? counts : null;
+    }
+
+    /**
+     * @return whether every count of the tile is known.
+     */
+    static boolean isComplete(int[] counts) {
+        for (int count : counts) {
+            if (count == TemplateJPPFTask.UNKNOWN) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
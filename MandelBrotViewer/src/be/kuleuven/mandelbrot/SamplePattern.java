@@ -0,0 +1,85 @@
+package be.kuleuven.mandelbrot;
+
+/**
+ * Where the samples of a super sampled pixel lie, as offsets in [0, 1) from its top left corner.
+ * <p>
+ * The samples of a pixel are the first points of the Halton sequence in bases 2 and 3, which
+ * cover the pixel evenly for any number of samples. So that neighbouring pixels do not repeat
+ * the same pattern, which would show as aliasing, each pixel shifts it by its own offset, modulo 1,
+ * hashed from the pixel coordinates and the seed of the render.
+ * <p>
+ * The positions only depend on the pixel, the sample index and the seed: not on the tile the pixel
+ * is part of, nor on the order samples are computed in. Renders are therefore reproducible, and
+ * their tiles can be cached like single sample tiles. Nothing is allocated or kept between calls.
+ * Stored tiles hold the counts of these exact positions: a change to them must increment
+ * {@link TileStore#VERSION}.
+ */
+public final class SamplePattern {
+
+    /**
+     * The Halton points of the sample indices up to this many are looked up rather than computed.
+     */
+    private static final int TABLE_SIZE = 32;
+    private static final double[] HALTON_2 = new double[TABLE_SIZE];
+    private static final double[] HALTON_3 = new double[TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            HALTON_2[i] = radicalInverse(i, 2);
+            HALTON_3[i] = radicalInverse(i, 3);
+        }
+    }
+
+    private SamplePattern() {
+    }
+
+    /**
+     * @return the hash of a pixel that {@link #offsetX} and {@link #offsetY} shift its samples by.
+     */
+    public static long pixelHash(long seed, int x, int y) {
+        return mix(seed + mix(((long) y << 32) | (x & 0xffffffffL)));
+    }
+
+    /**
+     * @param pixelHash the {@link #pixelHash} of the pixel.
+     * @param sample the index of the sample within the pixel.
+     * @return the horizontal offset of the sample in the pixel, in [0, 1).
+     */
+    public static double offsetX(long pixelHash, int sample) {
+        double x = (sample < TABLE_SIZE ? HALTON_2[sample] : radicalInverse(sample, 2)) + (pixelHash >>> 40) * 0x1.0p-24;
+        return x < 1 ? x : x - 1;
+    }
+
+    /**
+     * @param pixelHash the {@link #pixelHash} of the pixel.
+     * @param sample the index of the sample within the pixel.
+     * @return the vertical offset of the sample in the pixel, in [0, 1).
+     */
+    public static double offsetY(long pixelHash, int sample) {
+        double y = (sample < TABLE_SIZE ? HALTON_3[sample] : radicalInverse(sample, 3)) + (pixelHash & 0xffffff) * 0x1.0p-24;
+        return y < 1 ? y : y - 1;
+    }
+
+    /**
+     * @return the digits of {@code i} in the given base, mirrored around the radix point.
+     */
+    private static double radicalInverse(int i, int base) {
+        double inverse = 0;
+        double scale = 1.0 / base;
+        while (i > 0) {
+            inverse += (i % base) * scale;
+            i /= base;
+            scale /= base;
+        }
+        return inverse;
+    }
+
+    /**
+     * The finalizer of SplitMix64: every bit of the result depends on every bit of the input.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -18,12 +18,12 @@
 package be.kuleuven.mandelbrot;
 
 import org.jppf.node.protocol.AbstractTask;
+import org.jppf.utils.JPPFConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.awt.*;
-import java.awt.geom.Rectangle2D;
-import java.util.Random;
-
-import static be.kuleuven.mandelbrot.MandelBrotViewer.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 
 /**
  * This class is a template for a standard JPPF task.
@@ -39,97 +39,406 @@ import static be.kuleuven.mandelbrot.MandelBrotViewer.*;
  * </ol>
  * @author Laurent Cohen
  */
-public class TemplateJPPFTask extends AbstractTask<float[][]> {
-    private int w;
-    private Random rnd;
-    float[][] rgbValues;
-    int height;
-    Rectangle2D.Double viewPort;
-    int width;
+public class TemplateJPPFTask extends AbstractTask<int[]> {
+    /**
+     * Silent by default. At DEBUG every task logs a summary line, at TRACE also a sample of its counts.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TemplateJPPFTask.class);
+
+    /**
+     * At TRACE, one pixel in this many is logged with its iteration count, from the {@code mandelbrot.log.pixel.interval}
+     * property of the node; 0 logs none.
+     */
+    private static final int pixelLogInterval = JPPFConfiguration.getProperties().getInt("mandelbrot.log.pixel.interval", 1024);
+
+    /**
+     * The JVM running the task, as process id@host.
+     */
+    private static final String JVM_NAME = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * Iteration counts are returned in fixed point, with this many bits for the fraction:
+     * a sample that escaped after n iterations has a count of n &lt;&lt; FRACTION_BITS, plus its fractional
+     * part when the render spec is {@link RenderSpec#isSmooth() smooth}. Samples that did not escape
+     * have a count of maxIterations &lt;&lt; FRACTION_BITS. This leaves room for budgets up to 2^23 iterations.
+     */
+    public static final int FRACTION_BITS = 8;
+
+    /**
+     * The count of a sample that is not known, in {@link #setKnownCounts(int[]) known counts}.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final double LN_2 = Math.log(2);
+
+    private Tile tile;
+
+    /**
+     * The escape state of a render of the same samples with a smaller budget, to continue from, may be {@code null}.
+     */
+    private EscapeState previous;
 
+    /**
+     * Counts of the tile already known on the client, {@link #UNKNOWN} for the samples to compute, may be {@code null}.
+     */
+    private int[] knownCounts;
+
+    /**
+     * Whether the task was given known counts, which stays set after they are merged into the result.
+     */
+    private boolean hasKnownCounts;
+
+    /**
+     * The counts of the task packed by the {@link CountCodec}, instead of the result, when the render spec asks for it.
+     */
+    private byte[] packedCounts;
+
+    /**
+     * The escape state of the samples after this task ran, when the render spec asks for it.
+     */
+    private EscapeState escapeState;
+
+    /**
+     * Set by the node when the job is cancelled, checked while iterating.
+     */
+    private transient volatile boolean cancelled;
+
+    /**
+     * The kernel iterating the samples of this task on the node.
+     */
+    private transient volatile EscapeTimeKernel kernel;
+
+    /**
+     * Where the task ran and how much work it did there, for the {@link JobMetrics} of the client.
+     */
+    private String node;
+    private long computeNanos;
+    private long iterationCount;
 
     /**
    * Perform initializations on the client side,
    * before the task is executed by the node.
+   * The render parameters are not part of the task, they are read from the job's
+   * data provider under {@link RenderSpec#KEY}.
+   * @param tile the block of pixels this task computes.
+   */
+  public TemplateJPPFTask(Tile tile) {
+      this(tile, null);
+  }
+
+  /**
+   * Creates a task that refines an earlier render of the same tile to a larger iteration budget.
+   * Samples that escaped within the earlier budget keep their iteration count, the others
+   * continue iterating from where they stopped.
+   * @param tile the block of pixels this task computes.
+   * @param previous the escape state returned by the earlier render, may be {@code null}.
+   */
+  public TemplateJPPFTask(Tile tile, EscapeState previous) {
+      this.tile = tile;
+      this.previous = previous;
+  }
+
+  public Tile getTile() {
+      return tile;
+  }
+
+  /**
+   * Only computes the samples of the tile that are not known yet, for instance because they were
+   * {@link Reprojection reprojected} from the previous render. The escape state of the tile is
+   * then not returned, since the known samples have no last z. Only single sample renders have known counts.
+   * @param knownCounts the iteration counts of the tile, row by row, {@link #UNKNOWN} for the samples to compute.
+   */
+  public void setKnownCounts(int[] knownCounts) {
+      this.knownCounts = knownCounts;
+      this.hasKnownCounts = knownCounts != null;
+  }
+
+  /**
+   * @return whether the counts of this task include {@link #setKnownCounts(int[]) known counts} it did not compute.
+   */
+  public boolean hasKnownCounts() {
+      return hasKnownCounts;
+  }
+
+  /**
+   * @return the counts computed by this task, as described in {@link #run()}, unpacked on first use if they came
+   * back packed; {@code null} if the task did not run to the end.
+   */
+  public int[] getCounts() {
+      if (getResult() == null && packedCounts != null) {
+          setResult(CountCodec.decode(packedCounts));
+      }
+      return getResult();
+  }
+
+  /**
+   * @return the number of bytes of counts this task returned: packed, or 4 per sample.
+   */
+  public int getCountBytes() {
+      if (packedCounts != null) {
+          return packedCounts.length;
+      }
+      return getResult() != null ? 4 * getResult().length : 0;
+  }
+
+  /**
+   * @return the escape state of the samples of this tile, or {@code null} if the render spec did not ask for it.
    */
-  public TemplateJPPFTask(int width, Rectangle2D.Double viewport, int height, int w, Random rnd) {
-      this.w = w;
-      this.rnd = rnd;
-    // perform initializations here ...
-      this.height = height;
-      this.viewPort = viewport;
-      this.width = width;
+  public EscapeState getEscapeState() {
+      return escapeState;
+  }
+
+  /**
+   * @return the JVM that ran this task, or the thread for tasks run by the {@link LocalBackend}.
+   */
+  public String getNode() {
+      return node;
+  }
+
+  /**
+   * @return the time spent in {@link #run()}, in nanoseconds.
+   */
+  public long getComputeNanos() {
+      return computeNanos;
+  }
+
+  /**
+   * @return the number of escape time iterations this task executed, not counting those of a previous render.
+   */
+  public long getIterationCount() {
+      return iterationCount;
   }
 
   /**
    * This method contains the code that will be executed by a node.
+   * The result holds the iteration count of every sample of the tile, in fixed point, see {@link #FRACTION_BITS}:
+   * pixel by pixel, row by row, with the samples of a pixel next to each other. The client colours
+   * them, so changing the colours never needs the grid. On a node, the render spec may ask for the counts
+   * to travel back packed instead, see {@link #getCounts()}.
    * Any uncaught {@link Throwable Throwable} will be stored in the task via a call to {@link org.jppf.node.protocol.Task#setThrowable(Throwable) Task.setThrowable(Throwable)}.
    */
   @Override
   public void run() {
-      rgbValues= new float[height][3];
-      // write your task code here.
-      System.out.println("Hello, this is the node executing a template JPPF task");
-
-      System.out.println(height);
-      for (int h = 0; h < height; h++) {
-
-          float r = 0, g = 0, b = 0;
-          for (int sample = 0; sample < superSamples; sample++) {
-          /*if(isCancelled()) {
-            return null;
-          }*/
-
-              // escape time algorithm
-              double x0, y0;
-              if (superSamples == 1) {
-                  x0 = viewPort.getMinX() + (w + .5) / width * viewPort.getWidth();
-                  y0 = viewPort.getMaxY() - (h + 0.5) / height * viewPort.getHeight();
-              } else {
-                  x0 = viewPort.getMinX() + (w + rnd.nextDouble()) / width * viewPort.getWidth();
-                  y0 = viewPort.getMaxY() - (h + rnd.nextDouble()) / height * viewPort.getHeight();
-              }
-              double x = 0;
-              double y = 0;
+      long start = System.nanoTime();
+      node = isInNode() ? JVM_NAME : "local " + Thread.currentThread().getName();
+      RenderSpec spec = getDataProvider().getParameter(RenderSpec.KEY);
+      int width = spec.getWidth();
+      int height = spec.getHeight();
+      int superSamples = spec.getSuperSamples();
 
-              long iteration = 0;
-              long max_iteration = maxIterations;
+      EscapeState previous = this.previous;
+      // no need to send it back to the client
+      this.previous = null;
+      boolean partial = knownCounts != null;
+      int samples = tile.getPixelCount() * superSamples;
+      int[] counts = partial ? knownCounts : new int[samples];
+      // the counts go back as the result, not twice
+      knownCounts = null;
+      boolean keepEscapeState = spec.isEscapeState() && !partial;
+      int[] iterations = new int[samples];
+      double[] zx = new double[samples];
+      double[] zy = new double[samples];
 
-              while (x * x + y * y < 4 && iteration < max_iteration) {
-                  double xtemp = x * x - y * y + x0;
-                  y = 2 * x * y + y0;
-                  x = xtemp;
-                  iteration++;
+      // a deep zoom iterates the offsets of the samples from its centre, in double-double or, deeper still,
+      // against the reference orbit of the job
+      boolean deep = spec.isDeepZoom();
+      // only the double kernels give the z a sample escaped with, which the fraction is computed from
+      boolean smooth = spec.isSmooth() && !deep;
+      final EscapeTimeKernel kernel;
+      if (!deep) {
+          kernel = EscapeTimeKernel.forThisNode();
+      } else if (PerturbationKernel.isNeeded(spec.getViewWidth(), spec.getWidth())) {
+          kernel = new PerturbationKernel(getDataProvider().<ReferenceOrbit>getParameter(ReferenceOrbit.KEY));
+      } else {
+          kernel = new DoubleDoubleKernel(spec.getCenterX(), spec.getCenterY());
+      }
+      this.kernel = kernel;
+      if (cancelled) {
+          return;
+      }
+
+      int[] fractions = smooth ? new int[samples] : null;
+      // counts found by subdividing the tile, so the loops below only have to colour them
+      int[] subdivided = null;
+      if (spec.getComputeMode() == ComputeMode.MARIANI_SILVER && superSamples == 1 && previous == null && !partial && !deep) {
+          subdivided = subdivide(spec, tile, kernel, fractions);
+          if (subdivided == null) {
+              return;
+          }
+          // filled pixels have no last z
+          keepEscapeState = false;
+      }
+      // place the samples, and gather the ones that still need iterating so the kernel can batch them
+      double[] cx = new double[samples];
+      double[] cy = new double[samples];
+      int[] pending = new int[samples];
+      int pendingCount = 0, previousUnescaped = 0;
+      double left = deep ? -spec.getViewWidth() / 2 : spec.getMinX();
+      double top = deep ? spec.getViewHeight() / 2 : spec.getMaxY();
+      int i = 0;
+      for (int h = tile.getY(); h < tile.getY() + tile.getHeight(); h++) {
+          for (int w = tile.getX(); w < tile.getX() + tile.getWidth(); w++, i++) {
+              if (partial && counts[i] != UNKNOWN) {
+                  continue;
               }
+              // the sample positions only depend on the pixel and the seed, see SamplePattern
+              long pixelHash = superSamples == 1 ? 0 : SamplePattern.pixelHash(spec.getSeed(), w, h);
+              for (int sample = 0; sample < superSamples; sample++) {
+                  int s = i * superSamples + sample;
+                  if (superSamples == 1) {
+                      cx[s] = left + (w + .5) / width * spec.getViewWidth();
+                      cy[s] = top - (h + 0.5) / height * spec.getViewHeight();
+                  } else {
+                      cx[s] = left + (w + SamplePattern.offsetX(pixelHash, sample)) / width * spec.getViewWidth();
+                      cy[s] = top - (h + SamplePattern.offsetY(pixelHash, sample)) / height * spec.getViewHeight();
+                  }
 
-              // determine the color
-              Color color = Color.BLACK;
-              if (iteration < max_iteration) {
-                  double quotient = (double) iteration / (double) max_iteration;
-                  float c = (float) Math.pow(quotient, 1.0 / 3);
-                  if (quotient > 0.5) {
-                      // Close to the mandelbrot set the color changes from green to white
-                      r += c;
-                      g += 1.f;
-                      b += c;
+                  if (subdivided != null) {
+                      iterations[s] = subdivided[i];
+                  } else if (previous != null && previous.isEscaped(s)) {
+                      // escaped within the earlier budget, its count does not change
+                      iterations[s] = previous.getIterations(s);
                   } else {
-                      // Far away it changes from black to green
-                      g += c;
+                      if (previous != null) {
+                          zx[s] = previous.getZx(previousUnescaped);
+                          zy[s] = previous.getZy(previousUnescaped);
+                          previousUnescaped++;
+                          iterations[s] = previous.getMaxIterations();
+                      }
+                      pending[pendingCount++] = s;
                   }
               }
           }
+      }
+
+      // escape time algorithm, on the pending samples packed together
+      if (pendingCount > 0) {
+          double[] pcx = new double[pendingCount];
+          double[] pcy = new double[pendingCount];
+          double[] pzx = new double[pendingCount];
+          double[] pzy = new double[pendingCount];
+          int[] pIterations = new int[pendingCount];
+          for (int k = 0; k < pendingCount; k++) {
+              int s = pending[k];
+              pcx[k] = cx[s];
+              pcy[k] = cy[s];
+              pzx[k] = zx[s];
+              pzy[k] = zy[s];
+              pIterations[k] = iterations[s];
+              iterationCount -= iterations[s];
+          }
+          if (!kernel.iterate(pcx, pcy, pzx, pzy, pIterations, pendingCount, spec.getMaxIterations()) || cancelled) {
+              return;
+          }
+          for (int k = 0; k < pendingCount; k++) {
+              int s = pending[k];
+              zx[s] = pzx[k];
+              zy[s] = pzy[k];
+              iterations[s] = pIterations[k];
+              iterationCount += pIterations[k];
+              if (smooth && pIterations[k] < spec.getMaxIterations()) {
+                  fractions[s] = fraction(pzx[k], pzy[k]);
+              }
+          }
+      }
 
-          rgbValues[h][0]= r/superSamples;
-          rgbValues[h][1]= g/superSamples;
-          rgbValues[h][2]= b/superSamples;
+      // decided once per task, so that the loop below does not check the log level per pixel
+      boolean logPixels = pixelLogInterval > 0 && log.isTraceEnabled();
+      double[] unescapedZ = keepEscapeState ? new double[64] : null;
+      int unescaped = 0;
+      int maxIterations = spec.getMaxIterations();
+      i = 0;
+      for (int h = tile.getY(); h < tile.getY() + tile.getHeight(); h++) {
+          for (int w = tile.getX(); w < tile.getX() + tile.getWidth(); w++, i++) {
+              if (partial && counts[i] != UNKNOWN) {
+                  continue;
+              }
+
+              for (int sample = 0; sample < superSamples; sample++) {
+                  int s = i * superSamples + sample;
+                  int iteration = iterations[s];
 
-          System.out.println(r + g + b);
-          System.out.println("einde");
+                  if (keepEscapeState && iteration >= maxIterations) {
+                      if (2 * unescaped + 2 > unescapedZ.length) {
+                          unescapedZ = Arrays.copyOf(unescapedZ, 2 * unescapedZ.length);
+                      }
+                      unescapedZ[2 * unescaped] = zx[s];
+                      unescapedZ[2 * unescaped + 1] = zy[s];
+                      unescaped++;
+                  }
+                  counts[s] = iteration << FRACTION_BITS | (smooth ? fractions[s] : 0);
+              }
+
+              if (logPixels && i % pixelLogInterval == 0) {
+                  log.trace("{} pixel ({}, {}): {}", new Object[] {tile, w, h, counts[i * superSamples] / (double) (1 << FRACTION_BITS)});
+              }
+          }
+      }
 
+      if (keepEscapeState) {
+          escapeState = new EscapeState(spec.getMaxIterations(), iterations, Arrays.copyOf(unescapedZ, 2 * unescaped));
       }
 
       // eventually set the execution results
-      setResult(rgbValues);
+      if (spec.isPackedCounts() && isInNode()) {
+          packedCounts = CountCodec.encode(counts);
+      } else {
+          setResult(counts);
+      }
+      computeNanos = System.nanoTime() - start;
+      if (log.isDebugEnabled()) {
+          log.debug("{} on {}: {} ms, {} iterations, {} samples", new Object[] {tile, kernel.getClass().getSimpleName(),
+                  computeNanos / 1000000, iterationCount, samples});
+      }
 
   }
+
+  /**
+   * Computes the iteration counts of a single sample per pixel tile with {@link MarianiSilver} subdivision.
+   * @param fractions receives the fractions of the pixels that were iterated and escaped, row by row;
+   * {@code null} when the render is not smooth. Filled pixels are inside the set and have none.
+   * @return the counts, row by row, or {@code null} if the task was cancelled.
+   */
+  private int[] subdivide(final RenderSpec spec, final Tile tile, final EscapeTimeKernel kernel, final int[] fractions) {
+      return new MarianiSilver(spec.getMaxIterations()) {
+          @Override
+          protected int escapeTime(int w, int h) {
+              double x0 = spec.getMinX() + (w + .5) / spec.getWidth() * spec.getViewWidth();
+              double y0 = spec.getMaxY() - (h + 0.5) / spec.getHeight() * spec.getViewHeight();
+              if (cancelled) {
+                  return -1;
+              }
+              int iterations = kernel.iterate(x0, y0, spec.getMaxIterations());
+              iterationCount += Math.max(iterations, 0);
+              if (fractions != null && iterations >= 0 && iterations < spec.getMaxIterations()) {
+                  fractions[(h - tile.getY()) * tile.getWidth() + w - tile.getX()] = fraction(kernel.getZx(), kernel.getZy());
+              }
+              return iterations;
+          }
+      }.compute(tile);
+  }
+
+  /**
+   * Called by the node when the job is cancelled; makes {@link #run()} return early without a result.
+   */
+  @Override
+  public void onCancel() {
+      cancelled = true;
+      EscapeTimeKernel kernel = this.kernel;
+      if (kernel != null) {
+          kernel.cancel();
+      }
+  }
+
+  /**
+   * The fractional part of the smooth iteration count n + 1 - log2(log2 |z|) of a sample that escaped
+   * after n iterations with the given z. Kept within [0, 1), so the count never moves to another iteration.
+   * @return the fraction in units of 2^-{@link #FRACTION_BITS}.
+   */
+  static int fraction(double zx, double zy) {
+      double log2Modulus = 0.5 * Math.log(zx * zx + zy * zy) / LN_2;
+      double fraction = 1 - Math.log(log2Modulus) / LN_2;
+      int scale = 1 << FRACTION_BITS;
+      return (int) Math.max(0, Math.min(scale - 1, fraction * scale));
+  }
 }
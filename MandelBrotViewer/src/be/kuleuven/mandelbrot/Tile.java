@@ -0,0 +1,52 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.Serializable;
+
+/**
+ * A rectangular block of image pixels that is rendered by a single task.
+ * Coordinates are expressed in image space, with (0,0) the top left pixel.
+ */
+public class Tile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    public Tile(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of pixels covered by this tile.
+     */
+    public int getPixelCount() {
+        return width * height;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tile[%d,%d %dx%d]", x, y, width, height);
+    }
+}
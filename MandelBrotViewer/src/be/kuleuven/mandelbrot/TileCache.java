@@ -0,0 +1,102 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of per-tile data, evicting the least recently used tiles once
+ * the cached data exceeds a size bound.
+ * <p>
+ * The bound of the iteration count cache is read from the client configuration:
+ * <pre>
+ * # megabytes of packed iteration counts kept in memory, 0 disables the cache
+ * mandelbrot.cache.size = 64
+ * </pre>
+ * @param <V> the type of the cached data.
+ */
+public class TileCache<V> {
+
+    /**
+     * Tells how many bytes of memory a cached value takes.
+     */
+    public interface Weigher<V> {
+        long sizeOf(V value);
+    }
+
+    /**
+     * Weighs the iteration counts of a tile packed by the {@link CountCodec}.
+     */
+    public static final Weigher<byte[]> PACKED_COUNTS = new Weigher<byte[]>() {
+        @Override
+        public long sizeOf(byte[] packed) {
+            return packed.length;
+        }
+    };
+
+    private final long maxBytes;
+    private final Weigher<? super V> weigher;
+    private long bytes;
+    private final LinkedHashMap<TileKey, V> tiles = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * @param maxBytes the maximum number of bytes of data kept, {@code 0} disables the cache.
+     * @param weigher computes the size of the cached values.
+     */
+    public TileCache(long maxBytes, Weigher<? super V> weigher) {
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return a cache of packed iteration counts bounded by the {@code mandelbrot.cache.size} property of the
+     * JPPF configuration.
+     */
+    public static TileCache<byte[]> fromConfiguration() {
+        return new TileCache<>(JPPFConfiguration.getProperties().getLong("mandelbrot.cache.size", 64L) * 1024 * 1024,
+                PACKED_COUNTS);
+    }
+
+    /**
+     * @return the data of the tile, or {@code null} when it is not cached.
+     */
+    public synchronized V get(TileKey key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * Adds the data of a tile, evicting the least recently used tiles if needed.
+     * The value must not be modified afterwards.
+     */
+    public synchronized void put(TileKey key, V value) {
+        long size = weigher.sizeOf(value);
+        if (size > maxBytes) {
+            return;
+        }
+        V previous = tiles.put(key, value);
+        if (previous != null) {
+            bytes -= weigher.sizeOf(previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<TileKey, V>> it = tiles.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= weigher.sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the number of cached tiles.
+     */
+    public synchronized int size() {
+        return tiles.size();
+    }
+}
@@ -0,0 +1,183 @@
+package be.kuleuven.mandelbrot;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Identifies the iteration counts of one tile of one render, so they can be looked up instead of recomputed.
+ * The viewport is quantized, so that viewports which only differ by floating point noise (e.g. after
+ * zooming in and back out) share their tiles: its size by dropping the lowest bits of the mantissas, its
+ * origin by rounding it to a fraction of a pixel. The origin is not quantized like the size, as the
+ * mantissa of an absolute coordinate away from 0 resolves far less than a pixel once zoomed in.
+ * <p>
+ * Tiles computed by {@link ComputeMode#MARIANI_SILVER} can differ from escape time tiles in a few pixels,
+ * so the key includes the mode a tile was computed in.
+ */
+public final class TileKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Mantissa bits ignored when comparing viewport coordinates, out of 52.
+     */
+    private static final int QUANTIZATION_BITS = 12;
+
+    /**
+     * Steps per pixel the origin of the viewport is rounded to: a shift of a sixteenth of a pixel does not
+     * show, and is still coarser than the rounding of a coordinate at the deepest zoom that is cached, where
+     * the last bit of the mantissa is a few thousandths of a pixel.
+     */
+    private static final double ORIGIN_STEPS_PER_PIXEL = 16;
+
+    /**
+     * Number of bytes written by {@link #writeTo(DataOutput)}.
+     */
+    static final int BYTES = 5 * 8 + 10 * 4;
+
+    private final long minX, minY, viewWidth, viewHeight;
+    private final int width, height;
+    private final int tileX, tileY, tileWidth, tileHeight;
+    private final int maxIterations;
+    private final int superSamples;
+    private final long seed;
+    private final boolean smooth;
+    private final ComputeMode computeMode;
+
+    public TileKey(RenderSpec spec, Tile tile) {
+        // super sampled tiles are always computed by escape time
+        this(spec, tile, spec.getMaxIterations(), spec.isSmooth(),
+                spec.getSuperSamples() == 1 ? spec.getComputeMode() : ComputeMode.ESCAPE_TIME);
+    }
+
+    private TileKey(RenderSpec spec, Tile tile, int maxIterations, boolean smooth, ComputeMode computeMode) {
+        this.minX = quantizeOrigin(spec.getMinX(), spec.getViewWidth() / spec.getWidth());
+        this.minY = quantizeOrigin(spec.getMinY(), spec.getViewHeight() / spec.getHeight());
+        this.viewWidth = quantize(spec.getViewWidth());
+        this.viewHeight = quantize(spec.getViewHeight());
+        this.width = spec.getWidth();
+        this.height = spec.getHeight();
+        this.tileX = tile.getX();
+        this.tileY = tile.getY();
+        this.tileWidth = tile.getWidth();
+        this.tileHeight = tile.getHeight();
+        this.maxIterations = maxIterations;
+        this.superSamples = spec.getSuperSamples();
+        this.seed = spec.getSeed();
+        this.smooth = smooth;
+        this.computeMode = computeMode;
+    }
+
+    /**
+     * @return a key identifying the samples of a tile regardless of the iteration budget,
+     * which is what {@link EscapeState escape states} are looked up by. Only escape time tiles have those.
+     */
+    public static TileKey ignoringBudget(RenderSpec spec, Tile tile) {
+        return new TileKey(spec, tile, 0, false, ComputeMode.ESCAPE_TIME);
+    }
+
+    private TileKey(DataInput in) throws IOException {
+        this.minX = in.readLong();
+        this.minY = in.readLong();
+        this.viewWidth = in.readLong();
+        this.viewHeight = in.readLong();
+        this.width = in.readInt();
+        this.height = in.readInt();
+        this.tileX = in.readInt();
+        this.tileY = in.readInt();
+        this.tileWidth = in.readInt();
+        this.tileHeight = in.readInt();
+        this.maxIterations = in.readInt();
+        this.superSamples = in.readInt();
+        this.seed = in.readLong();
+        this.smooth = in.readInt() != 0;
+        this.computeMode = ComputeMode.values()[in.readInt()];
+    }
+
+    /**
+     * Reads a key written by {@link #writeTo(DataOutput)}.
+     */
+    static TileKey readFrom(DataInput in) throws IOException {
+        return new TileKey(in);
+    }
+
+    /**
+     * Writes this key in a fixed size binary form of {@link #BYTES} bytes.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(minX);
+        out.writeLong(minY);
+        out.writeLong(viewWidth);
+        out.writeLong(viewHeight);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(tileX);
+        out.writeInt(tileY);
+        out.writeInt(tileWidth);
+        out.writeInt(tileHeight);
+        out.writeInt(maxIterations);
+        out.writeInt(superSamples);
+        out.writeLong(seed);
+        out.writeInt(smooth ? 1 : 0);
+        out.writeInt(computeMode.ordinal());
+    }
+
+    /**
+     * Rounds a double to its {@code 52 - QUANTIZATION_BITS} most significant mantissa bits.
+     */
+    static long quantize(double value) {
+        long bits = Double.doubleToLongBits(value + 0.0);
+        long half = 1L << (QUANTIZATION_BITS - 1);
+        return (bits + half) >> QUANTIZATION_BITS;
+    }
+
+    /**
+     * Rounds a coordinate to {@code 1 / ORIGIN_STEPS_PER_PIXEL} of the given pixel size.
+     */
+    static long quantizeOrigin(double value, double pixelSize) {
+        return Math.round(value / pixelSize * ORIGIN_STEPS_PER_PIXEL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TileKey)) {
+            return false;
+        }
+        TileKey other = (TileKey) o;
+        return minX == other.minX && minY == other.minY && viewWidth == other.viewWidth && viewHeight == other.viewHeight
+                && width == other.width && height == other.height
+                && tileX == other.tileX && tileY == other.tileY && tileWidth == other.tileWidth && tileHeight == other.tileHeight
+                && maxIterations == other.maxIterations && superSamples == other.superSamples
+                && seed == other.seed && smooth == other.smooth && computeMode == other.computeMode;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = minX;
+        h = 31 * h + minY;
+        h = 31 * h + viewWidth;
+        h = 31 * h + viewHeight;
+        h = 31 * h + width;
+        h = 31 * h + height;
+        h = 31 * h + tileX;
+        h = 31 * h + tileY;
+        h = 31 * h + tileWidth;
+        h = 31 * h + tileHeight;
+        h = 31 * h + maxIterations;
+        h = 31 * h + superSamples;
+        h = 31 * h + seed;
+        h = 31 * h + (smooth ? 1 : 0);
+        h = 31 * h + computeMode.ordinal();
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TileKey[%d,%d %dx%d of %dx%d, maxIterations=%d, superSamples=%d, %s]",
+                tileX, tileY, tileWidth, tileHeight, width, height, maxIterations, superSamples, computeMode);
+    }
+}
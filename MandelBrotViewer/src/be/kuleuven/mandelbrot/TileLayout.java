@@ -0,0 +1,108 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+import org.jppf.utils.TypedProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how an image is cut into {@link Tile tiles}, each of which becomes one task.
+ * A layout is either a fixed tile size in pixels or a fixed number of columns and rows.
+ * <p>
+ * The defaults are read from the client configuration:
+ * <pre>
+ * mandelbrot.tile.width = 64
+ * mandelbrot.tile.height = 64
+ * # when set, these take precedence over the tile size
+ * mandelbrot.tile.columns = 0
+ * mandelbrot.tile.rows = 0
+ * </pre>
+ */
+public class TileLayout {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private final int tileWidth, tileHeight;
+    private final int columns, rows;
+
+    private TileLayout(int tileWidth, int tileHeight, int columns, int rows) {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * @return a layout producing tiles of (at most) the given size in pixels.
+     */
+    public static TileLayout bySize(int tileWidth, int tileHeight) {
+        if (tileWidth < 1 || tileHeight < 1) {
+            throw new IllegalArgumentException("tile size must be positive: " + tileWidth + "x" + tileHeight);
+        }
+        return new TileLayout(tileWidth, tileHeight, 0, 0);
+    }
+
+    /**
+     * @return a layout cutting the image in the given number of columns and rows.
+     */
+    public static TileLayout byCount(int columns, int rows) {
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException("tile count must be positive: " + columns + "x" + rows);
+        }
+        return new TileLayout(0, 0, columns, rows);
+    }
+
+    /**
+     * @return the layout described by the {@code mandelbrot.tile.*} properties of the JPPF configuration.
+     */
+    public static TileLayout fromConfiguration() {
+        TypedProperties props = JPPFConfiguration.getProperties();
+        int columns = props.getInt("mandelbrot.tile.columns", 0);
+        int rows = props.getInt("mandelbrot.tile.rows", 0);
+        if (columns > 0 && rows > 0) {
+            return byCount(columns, rows);
+        }
+        return bySize(props.getInt("mandelbrot.tile.width", DEFAULT_TILE_SIZE),
+                props.getInt("mandelbrot.tile.height", DEFAULT_TILE_SIZE));
+    }
+
+    /**
+     * Parses a tile size as typed in the toolbar, either {@code "64"} for square tiles or {@code "64x32"}.
+     * @throws NumberFormatException if the text is not a valid size.
+     */
+    public static TileLayout parse(String text) {
+        String[] parts = text.trim().toLowerCase().split("x");
+        if (parts.length == 1) {
+            int size = Integer.parseUnsignedInt(parts[0].trim());
+            return bySize(Math.max(1, size), Math.max(1, size));
+        }
+        if (parts.length == 2) {
+            return bySize(Math.max(1, Integer.parseUnsignedInt(parts[0].trim())),
+                    Math.max(1, Integer.parseUnsignedInt(parts[1].trim())));
+        }
+        throw new NumberFormatException("not a tile size: " + text);
+    }
+
+    /**
+     * Splits an image of the given dimensions in tiles, row by row from the top left corner.
+     * Tiles on the right and bottom edge are clipped to the image.
+     */
+    public List<Tile> split(int width, int height) {
+        int tw = columns > 0 ? (width + columns - 1) / columns : tileWidth;
+        int th = rows > 0 ? (height + rows - 1) / rows : tileHeight;
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += th) {
+            for (int x = 0; x < width; x += tw) {
+                tiles.add(new Tile(x, y, Math.min(tw, width - x), Math.min(th, height - y)));
+            }
+        }
+        return tiles;
+    }
+
+    @Override
+    public String toString() {
+        return columns > 0 ? columns + "x" + rows + " tiles" : tileWidth + "x" + tileHeight;
+    }
+}
@@ -0,0 +1,201 @@
+package be.kuleuven.mandelbrot;
+
+import org.jppf.utils.JPPFConfiguration;
+import org.jppf.utils.TypedProperties;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent, append-only store of rendered tiles, so that work survives a restart of the viewer.
+ * <p>
+ * The store is a directory holding two files:
+ * <ul>
+ * <li>{@code counts.dat}: the iteration counts of every tile, packed by the {@link CountCodec}, one tile
+ * after the other.</li>
+ * <li>{@code counts.idx}: a header of a magic number and the {@link #VERSION} of the store, then one
+ * fixed size record per tile: its {@link TileKey} followed by the offset and the length of its packed
+ * counts in {@code counts.dat}.</li>
+ * </ul>
+ * The index is loaded in memory when the store is opened, counts are read through a memory mapping
+ * of the data file. Records are only ever appended, and a record is written to the index after its
+ * counts, so a crash can at worst lose the last tile. Stores of earlier versions held coloured
+ * pixels in {@code tiles.dat} and {@code tiles.idx}; those files are ignored. A store whose index has
+ * no header or another version is emptied when opened, as its counts would be served for samples they
+ * were not computed for.
+ * <p>
+ * The store is configured in the client configuration:
+ * <pre>
+ * mandelbrot.store.enabled = true
+ * mandelbrot.store.dir = tilestore
+ * </pre>
+ */
+public class TileStore implements Closeable {
+
+    private static final String DATA_FILE = "counts.dat";
+    private static final String INDEX_FILE = "counts.idx";
+
+    private static final int MAGIC = 0x4d544c53;
+
+    /**
+     * Version of what the stored tiles mean, to be incremented whenever the binary form of a {@link TileKey},
+     * the placement of the samples by {@link SamplePattern} or the encoding of the counts changes.
+     */
+    static final int VERSION = 6;
+
+    private static final int HEADER_BYTES = 8;
+
+    private static final int RECORD_BYTES = TileKey.BYTES + 8 + 4;
+
+    private final FileChannel data;
+    private final DataOutputStream index;
+    private final Map<TileKey, Long> offsets = new HashMap<>();
+    private final Map<TileKey, Integer> sizes = new HashMap<>();
+    private long dataSize;
+    private MappedByteBuffer mapped;
+
+    /**
+     * Opens the store in the given directory, creating it if needed.
+     */
+    public TileStore(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create tile store directory " + dir);
+        }
+        data = FileChannel.open(new File(dir, DATA_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!hasCurrentVersion(indexFile)) {
+            data.truncate(0);
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+        }
+        dataSize = data.size();
+        long validIndexBytes = loadIndex(indexFile);
+        // drop a record torn by a crash, so that new records stay aligned
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(validIndexBytes);
+        }
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+    }
+
+    /**
+     * @return the store described by the {@code mandelbrot.store.*} properties, or {@code null}
+     * if it is disabled or cannot be opened.
+     */
+    public static TileStore fromConfiguration() {
+        TypedProperties props = JPPFConfiguration.getProperties();
+        if (!props.getBoolean("mandelbrot.store.enabled", true)) {
+            return null;
+        }
+        File dir = new File(props.getString("mandelbrot.store.dir", "tilestore"));
+        try {
+            return new TileStore(dir);
+        } catch (IOException e) {
+            System.out.println("Tile store " + dir + " disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the index file starts with the header of this version of the store.
+     */
+    private static boolean hasCurrentVersion(File indexFile) throws IOException {
+        if (indexFile.length() < HEADER_BYTES) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        }
+    }
+
+    /**
+     * Reads all complete index records whose pixels are in the data file.
+     * @return the number of bytes of the index file holding the header and complete records.
+     */
+    private long loadIndex(File indexFile) throws IOException {
+        long valid = HEADER_BYTES;
+        long length = indexFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            in.skipBytes(HEADER_BYTES);
+            while (valid + RECORD_BYTES <= length) {
+                TileKey key = TileKey.readFrom(in);
+                long offset = in.readLong();
+                int size = in.readInt();
+                if (offset + size > dataSize) {
+                    break;
+                }
+                offsets.put(key, offset);
+                sizes.put(key, size);
+                valid += RECORD_BYTES;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * @return the iteration counts of the tile packed by the {@link CountCodec}, or {@code null} if it is not in the store.
+     */
+    public synchronized byte[] get(TileKey key) throws IOException {
+        Long offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        byte[] packed = new byte[sizes.get(key)];
+        if (mapped == null || mapped.capacity() < offset + packed.length) {
+            // the file grew since it was last mapped
+            mapped = data.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) (long) offset);
+        view.get(packed);
+        return packed;
+    }
+
+    /**
+     * Appends a tile to the store, unless it is already there.
+     * @param packed the iteration counts of the tile packed by the {@link CountCodec}.
+     */
+    public synchronized void put(TileKey key, byte[] packed) throws IOException {
+        if (offsets.containsKey(key)) {
+            return;
+        }
+        if (dataSize + packed.length > Integer.MAX_VALUE) {
+            // a single mapping is limited to 2GB, the store is full
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        long offset = dataSize;
+        while (buffer.hasRemaining()) {
+            data.write(buffer, offset + buffer.position());
+        }
+        dataSize += packed.length;
+
+        key.writeTo(index);
+        index.writeLong(offset);
+        index.writeInt(packed.length);
+        index.flush();
+        offsets.put(key, offset);
+        sizes.put(key, packed.length);
+    }
+
+    /**
+     * @return the number of tiles in the store.
+     */
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+        data.close();
+    }
+}